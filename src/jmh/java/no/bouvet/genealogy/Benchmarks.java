@@ -0,0 +1,22 @@
+package no.bouvet.genealogy;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so every result comes with its allocation rate. Takes the usual JMH
+ * options, such as a pattern of the benchmarks to run or {@code -p gedcom=<file>} for another sample file than the one
+ * of the project, which is read from the class path.
+ */
+public class Benchmarks {
+
+    public static void main(String... args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,115 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.gedcom4j.model.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * The values of a GEDCOM file that the importer's helpers are called with, collected once so the benchmarks measure
+ * the helpers and not the reading.
+ */
+class GedcomSample {
+
+    final List<String> xrefs = Lists.newArrayList();
+    final List<List<PersonalName>> names = Lists.newArrayList();
+    final List<List<String>> lines = Lists.newArrayList();
+    final List<String> eventTags = Lists.newArrayList();
+    final List<Place> places = Lists.newArrayList();
+    final List<List<String>> placeChains = Lists.newArrayList();
+
+    /**
+     * The sample file of the project, which is on the class path of the benchmarks.
+     */
+    static final String DEFAULT = "min-slekt.ged";
+
+    /**
+     * @param gedcom a GEDCOM file, or the name of one on the class path
+     */
+    static GedcomSample read(String gedcom) throws IOException {
+        if (new File(gedcom).isFile()) {
+            return readFile(gedcom);
+        }
+        // The reader maps the file into memory, so a sample on the class path is copied out of the jar first
+        Path copy = Files.createTempFile("sample", ".ged");
+        try (InputStream in = GedcomSample.class.getResourceAsStream("/" + gedcom)) {
+            if (in == null) {
+                throw new IOException("No file or class path resource " + gedcom);
+            }
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+            return readFile(copy.toString());
+        } finally {
+            Files.delete(copy);
+        }
+    }
+
+    private static GedcomSample readFile(String gedcomFilename) throws IOException {
+        GedcomSample sample = new GedcomSample();
+        try (GedcomRecordReader reader = new GedcomRecordReader(gedcomFilename, true)) {
+            for (AbstractElement record = reader.next(); record != null; record = reader.next()) {
+                if (record instanceof Individual) {
+                    Individual individual = (Individual) record;
+                    sample.xrefs.add(individual.xref);
+                    sample.names.add(individual.names);
+                    individual.events.forEach(sample::addEvent);
+                    individual.attributes.forEach(sample::addEvent);
+                } else if (record instanceof Family) {
+                    Family family = (Family) record;
+                    sample.xrefs.add(family.xref);
+                    family.events.forEach(sample::addEvent);
+                } else if (record instanceof Source) {
+                    Source source = (Source) record;
+                    sample.xrefs.add(source.xref);
+                    sample.lines.add(source.title);
+                }
+            }
+        }
+        return sample;
+    }
+
+    private void addEvent(IndividualEvent event) {
+        addEvent(event.type.tag, event);
+    }
+
+    private void addEvent(IndividualAttribute attribute) {
+        addEvent(attribute.type.tag, attribute);
+    }
+
+    private void addEvent(FamilyEvent event) {
+        addEvent(event.type.tag, event);
+    }
+
+    private void addEvent(String tag, Event event) {
+        eventTags.add(tag);
+        if (event.place != null) {
+            places.add(event.place);
+            placeChains.add(Lists.newArrayList(Splitter.on(", ").split(event.place.placeName)));
+        }
+    }
+
+    /**
+     * Hands out the items of a list over and over, in order.
+     */
+    static class Cycle<T> {
+
+        private final List<T> items;
+        private int index;
+
+        Cycle(List<T> items) {
+            this.items = items;
+        }
+
+        T next() {
+            T item = items.get(index);
+            index = index + 1 == items.size() ? 0 : index + 1;
+            return item;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.PersonalName;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The static helpers the importer calls for every record, each called with the next value from the sample file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Thread)
+public class ImportHelpersBenchmark {
+
+    @Param(GedcomSample.DEFAULT)
+    public String gedcom;
+
+    private GedcomSample.Cycle<String> xrefs;
+    private GedcomSample.Cycle<List<PersonalName>> names;
+    private GedcomSample.Cycle<List<String>> lines;
+    private GedcomSample.Cycle<String> eventTags;
+
+    @Setup
+    public void readSample() throws IOException {
+        GedcomSample sample = GedcomSample.read(gedcom);
+        xrefs = new GedcomSample.Cycle<>(sample.xrefs);
+        names = new GedcomSample.Cycle<>(sample.names);
+        lines = new GedcomSample.Cycle<>(sample.lines);
+        eventTags = new GedcomSample.Cycle<>(sample.eventTags);
+    }
+
+    @Benchmark
+    public String makeId() {
+        return GedcomToNeo4J.makeId(xrefs.next());
+    }
+
+    @Benchmark
+    public String[] mapNames() {
+        return GedcomToNeo4J.mapToStringArray(names.next(), n -> n.basic.trim());
+    }
+
+    @Benchmark
+    public String[] mapLines() {
+        return GedcomToNeo4J.mapToStringArray(lines.next());
+    }
+
+    @Benchmark
+    public String mapHendelseType() {
+        return GedcomToNeo4J.mapHendelseType(eventTags.next());
+    }
+}
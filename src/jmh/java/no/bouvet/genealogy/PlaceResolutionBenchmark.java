@@ -0,0 +1,68 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.Place;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of event places to {@code Sted} nodes through the place trie of an import into an empty store. The
+ * nodes go to a sink that only hands out ids, so only the importer's own work is measured.
+ * <p>
+ * {@link #resolvePlace()} and {@link #resolvePlaceChain()} find places the import has already seen, which is what
+ * most events do. {@link #resolveAllPlaces()} resolves every place of the sample file in a new import, creating the
+ * places on their first use.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Thread)
+public class PlaceResolutionBenchmark {
+
+    @Param(GedcomSample.DEFAULT)
+    public String gedcom;
+
+    private List<Place> allPlaces;
+    private GedcomSample.Cycle<Place> places;
+    private GedcomSample.Cycle<List<String>> placeChains;
+    private GedcomToNeo4J importer;
+
+    @Setup
+    public void startImport() throws IOException {
+        GedcomSample sample = GedcomSample.read(gedcom);
+        allPlaces = sample.places;
+        places = new GedcomSample.Cycle<>(sample.places);
+        placeChains = new GedcomSample.Cycle<>(sample.placeChains);
+
+        importer = new GedcomToNeo4J();
+        resolve(importer, allPlaces);
+    }
+
+    @Benchmark
+    public long resolvePlace() {
+        return importer.fetchOrCreatePlace(places.next());
+    }
+
+    @Benchmark
+    public long resolvePlaceChain() {
+        return importer.fetchOrCreatePlaceChain(placeChains.next());
+    }
+
+    @Benchmark
+    public long resolveAllPlaces() {
+        return resolve(new GedcomToNeo4J(), allPlaces);
+    }
+
+    private static long resolve(GedcomToNeo4J importer, List<Place> places) {
+        importer.startImport(new InMemoryGraphSink(), new XrefNodeIdMap(), new XrefNodeIdMap(), new XrefNodeIdMap(), true);
+        long last = 0;
+        for (Place place : places) {
+            last = importer.fetchOrCreatePlace(place);
+        }
+        return last;
+    }
+}
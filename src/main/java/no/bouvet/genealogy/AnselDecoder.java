@@ -0,0 +1,72 @@
+package no.bouvet.genealogy;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Decodes ANSEL (ANSI Z39.47), the character set of GEDCOM 5.5, through a lookup table. ANSEL puts combining
+ * diacritics before the letter they belong to, while Unicode puts them after it, so they are held back until the
+ * letter has been decoded, and text with diacritics is composed to NFC.
+ */
+final class AnselDecoder {
+
+    private static final int FIRST_COMBINING = 0xE0;
+
+    private static final char[] TABLE = new char[256];
+
+    static {
+        for (int b = 0; b < 0x80; b++) {
+            TABLE[b] = (char) b;
+        }
+        Arrays.fill(TABLE, 0x80, TABLE.length, '\uFFFD');
+
+        // Spacing characters
+        map(0xA1, '\u0141', '\u00D8', '\u0110', '\u00DE', '\u00C6', '\u0152', '\u02B9', '\u00B7', '\u266D', '\u00AE',
+                '\u00B1', '\u01A0', '\u01AF', '\u02BC');
+        map(0xB0, '\u02BB', '\u0142', '\u00F8', '\u0111', '\u00FE', '\u00E6', '\u0153', '\u02BA', '\u0131', '\u00A3',
+                '\u00F0');
+        map(0xBC, '\u01A1', '\u01B0', '\u25A1', '\u25A0', '\u00B0', '\u2113', '\u2117', '\u00A9', '\u266F', '\u00BF',
+                '\u00A1', '\u00DF', '\u20AC');
+        map(0xCF, '\u00DF');
+
+        // Combining diacritics
+        map(0xE0, '\u0309', '\u0300', '\u0301', '\u0302', '\u0303', '\u0304', '\u0306', '\u0307', '\u0308', '\u030C',
+                '\u030A', '\uFE20', '\uFE21', '\u0315', '\u030B', '\u0310', '\u0327', '\u0328', '\u0323', '\u0324',
+                '\u0325', '\u0333', '\u0332', '\u0326', '\u031C', '\u032E', '\uFE22', '\uFE23');
+        map(0xFE, '\u0313');
+    }
+
+    private AnselDecoder() {
+    }
+
+    /**
+     * @param target must hold at least {@code length} chars
+     */
+    static String decode(byte[] source, int length, char[] target) {
+        int count = 0;
+        boolean combined = false;
+        int index = 0;
+        while (index < length) {
+            int marks = index;
+            while (index < length && (source[index] & 0xFF) >= FIRST_COMBINING) {
+                index++;
+            }
+            if (index < length) {
+                target[count++] = TABLE[source[index] & 0xFF];
+            }
+            for (int mark = marks; mark < index; mark++) {
+                target[count++] = TABLE[source[mark] & 0xFF];
+                combined = true;
+            }
+            index++;
+        }
+        String text = new String(target, 0, count);
+        return combined ? Normalizer.normalize(text, Normalizer.Form.NFC) : text;
+    }
+
+    private static void map(int first, char... chars) {
+        for (int offset = 0; offset < chars.length; offset++) {
+            TABLE[first + offset] = chars[offset];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package no.bouvet.genealogy;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Writes directly to the store files through a {@link BatchInserter}: no transactions and no locks, but also no
+ * way to query the store by property. The importer resolves everything it has written from its own identity map
+ * and place trie, and the schema is created deferred and populated when the inserter shuts down.
+ */
+class BatchInserterGraphSink implements GraphSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchInserterGraphSink.class);
+
+    private final BatchInserter inserter;
+
+    BatchInserterGraphSink(BatchInserter inserter) {
+        this.inserter = inserter;
+    }
+
+    @Override
+    public void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys) {
+        uniqueKeys.forEach((label, key) -> inserter.createDeferredConstraint(label).assertPropertyIsUnique(key).create());
+        indexedKeys.forEach((label, key) -> inserter.createDeferredSchemaIndex(label).on(key).create());
+    }
+
+    @Override
+    public long createNode(Label label, Map<String, Object> properties) {
+        return inserter.createNode(properties, label);
+    }
+
+    @Override
+    public void setNodeProperty(long node, String key, Object value) {
+        inserter.setNodeProperty(node, key, value);
+    }
+
+    @Override
+    public Object getNodeProperty(long node, String key) {
+        return inserter.getNodeProperties(node).get(key);
+    }
+
+    @Override
+    public long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        return inserter.createRelationship(from, to, type, properties);
+    }
+
+    @Override
+    public void commitPoint() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        LOG.info("Shutting down batch inserter for '{}'", inserter.getStoreDir());
+        inserter.shutdown();
+    }
+}
@@ -0,0 +1,281 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the graph as CSV files for the offline bulk import tool of Neo4j, neo4j-import, instead of to a store: one
+ * file of nodes per label and one file of relationships per type, each with a header line that names its columns
+ * and their types. The import tool takes them with {@code --array-delimiter TAB}, and the sink writes a script next
+ * to them that runs it that way, along with the statements that create the schema afterwards.
+ * <p>
+ * Rows are streamed to the files. The only nodes kept in memory are the ones created since the last
+ * {@link #commitPoint()}, since the importer sets their properties after creating them, and a node cannot change
+ * once it has been written. Like the batch inserter, the sink cannot query what it has written.
+ */
+class CsvGraphSink implements GraphSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CsvGraphSink.class);
+
+    static final String IMPORT_SCRIPT = "neo4j-import.sh";
+    static final String SCHEMA = "schema.cypher";
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final char ARRAY_DELIMITER = '\t';
+
+    private final File directory;
+    private final Map<String, List<String>> nodeColumns;
+    private final Map<String, List<String>> relationshipColumns;
+
+    private final Map<String, CsvFile> nodeFiles = Maps.newLinkedHashMap();
+    private final Map<String, CsvFile> relationshipFiles = Maps.newLinkedHashMap();
+    private final Map<Long, PendingNode> pending = Maps.newLinkedHashMap();
+    private final List<String> schema = Lists.newArrayList();
+    private long nextNode;
+    private long nextRelationship;
+
+    /**
+     * @param nodeColumns         the properties of the nodes of every label, as {@code name} or {@code name:type} in
+     *                            the notation of the import tool
+     * @param relationshipColumns the properties of the relationships of every type that has any
+     */
+    CsvGraphSink(File directory, Map<String, List<String>> nodeColumns, Map<String, List<String>> relationshipColumns) {
+        String[] existing = directory.list();
+        Preconditions.checkArgument(existing == null || existing.length == 0,
+                "The CSV export needs a new directory, but '%s' is not empty", directory);
+        Preconditions.checkArgument(directory.isDirectory() || directory.mkdirs(), "Could not create '%s'", directory);
+        this.directory = directory;
+        this.nodeColumns = nodeColumns;
+        this.relationshipColumns = relationshipColumns;
+    }
+
+    /**
+     * The import tool creates no schema, so the statements that create it are written to {@link #SCHEMA}, to be run
+     * once the store has been imported.
+     */
+    @Override
+    public void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys) {
+        uniqueKeys.forEach((label, key) ->
+                schema.add("CREATE CONSTRAINT ON (n:" + label.name() + ") ASSERT n." + key + " IS UNIQUE;"));
+        indexedKeys.forEach((label, key) -> schema.add("CREATE INDEX ON :" + label.name() + "(" + key + ");"));
+    }
+
+    @Override
+    public long createNode(Label label, Map<String, Object> properties) {
+        CsvFile file = nodeFiles.computeIfAbsent(label.name(), name -> {
+            List<String> columns = nodeColumns.get(name);
+            Preconditions.checkArgument(columns != null, "The CSV export has no columns for :%s nodes", name);
+            return open(name, columns, ":ID", ":LABEL");
+        });
+        long node = nextNode++;
+        PendingNode pendingNode = new PendingNode(file, label.name());
+        pending.put(node, pendingNode);
+        properties.forEach((key, value) -> pendingNode.values[file.column(key)] = value);
+        return node;
+    }
+
+    @Override
+    public void setNodeProperty(long node, String key, Object value) {
+        PendingNode pendingNode = pendingNode(node);
+        pendingNode.values[pendingNode.file.column(key)] = value;
+    }
+
+    @Override
+    public Object getNodeProperty(long node, String key) {
+        PendingNode pendingNode = pendingNode(node);
+        return pendingNode.values[pendingNode.file.column(key)];
+    }
+
+    @Override
+    public long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        CsvFile file = relationshipFiles.computeIfAbsent(type.name(), name ->
+                open(name, relationshipColumns.getOrDefault(name, ImmutableList.of()), ":START_ID", ":END_ID", ":TYPE"));
+        Object[] values = new Object[file.keys.size()];
+        properties.forEach((key, value) -> values[file.column(key)] = value);
+        file.writeRow(Long.toString(from), Long.toString(to), type.name(), values);
+        return nextRelationship++;
+    }
+
+    /**
+     * The nodes created since the last commit point are complete, so they are written.
+     */
+    @Override
+    public void commitPoint() {
+        pending.forEach((node, pendingNode) ->
+                pendingNode.file.writeRow(Long.toString(node), null, pendingNode.label, pendingNode.values));
+        pending.clear();
+    }
+
+    @Override
+    public void flush() {
+        commitPoint();
+        try {
+            for (CsvFile file : Iterables.concat(nodeFiles.values(), relationshipFiles.values())) {
+                file.writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the nodes that are still pending, closes the files and writes the import script and the schema.
+     */
+    @Override
+    public void close() {
+        try {
+            commitPoint();
+            for (CsvFile file : Iterables.concat(nodeFiles.values(), relationshipFiles.values())) {
+                file.writer.close();
+            }
+            writeScript();
+            Files.write(new File(directory, SCHEMA).toPath(), (Joiner.on('\n').join(schema) + "\n").getBytes(Charsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.info("Wrote {} nodes and {} relationships to '{}', import them with {}", new Object[]{nextNode,
+                nextRelationship, directory, new File(directory, IMPORT_SCRIPT)});
+    }
+
+    private void writeScript() throws IOException {
+        StringBuilder script = new StringBuilder()
+                .append("#!/bin/sh\n")
+                .append("# Imports the CSV files next to this script into a new store: sh ").append(IMPORT_SCRIPT)
+                .append(" <store directory>\n")
+                .append("# Then create the schema with the statements in ").append(SCHEMA).append(".\n")
+                .append("dir=$(dirname \"$0\")\n")
+                .append("neo4j-import --into \"$1\" --array-delimiter TAB --multiline-fields true");
+        nodeFiles.keySet().forEach(label -> script.append(" \\\n    --nodes \"$dir/").append(label).append(".csv\""));
+        relationshipFiles.keySet().forEach(type -> script.append(" \\\n    --relationships \"$dir/").append(type)
+                .append(".csv\""));
+        script.append('\n');
+        Files.write(new File(directory, IMPORT_SCRIPT).toPath(), script.toString().getBytes(Charsets.UTF_8));
+    }
+
+    private PendingNode pendingNode(long node) {
+        PendingNode pendingNode = pending.get(node);
+        Preconditions.checkState(pendingNode != null, "Node %s has already been written, the CSV export cannot change it",
+                node);
+        return pendingNode;
+    }
+
+    /**
+     * @param ids the columns for the ids before the properties, followed by the column for the label or type
+     */
+    private CsvFile open(String name, List<String> columns, String... ids) {
+        File file = new File(directory, name + ".csv");
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8),
+                    BUFFER_SIZE);
+            List<String> header = Lists.newArrayList(Arrays.asList(ids).subList(0, ids.length - 1));
+            header.addAll(columns);
+            header.add(ids[ids.length - 1]);
+            writer.write(Joiner.on(',').join(header));
+            writer.write('\n');
+            return new CsvFile(writer, columns);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class PendingNode {
+
+        final CsvFile file;
+        final String label;
+        final Object[] values;
+
+        PendingNode(CsvFile file, String label) {
+            this.file = file;
+            this.label = label;
+            this.values = new Object[file.keys.size()];
+        }
+    }
+
+    private static class CsvFile {
+
+        final Writer writer;
+        // The names of the property columns, without their types
+        final List<String> keys = Lists.newArrayList();
+
+        CsvFile(Writer writer, List<String> columns) {
+            this.writer = writer;
+            columns.forEach(column -> keys.add(column.contains(":") ? column.substring(0, column.indexOf(':')) : column));
+        }
+
+        int column(String key) {
+            int column = keys.indexOf(key);
+            Preconditions.checkArgument(column >= 0, "The CSV export has no column for the property '%s'", key);
+            return column;
+        }
+
+        /**
+         * @param end the second id, or null for a node, which only has one
+         */
+        void writeRow(String start, String end, String labelOrType, Object[] values) {
+            try {
+                writer.write(start);
+                if (end != null) {
+                    writer.write(',');
+                    writer.write(end);
+                }
+                for (Object value : values) {
+                    writer.write(',');
+                    writeValue(value);
+                }
+                writer.write(',');
+                writer.write(labelOrType);
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Text is quoted, with quotes in it doubled. The elements of arrays are separated by tabs, so a tab within an
+         * element becomes a space.
+         */
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                writer.write(value.toString());
+                return;
+            }
+            String text;
+            if (value instanceof Object[]) {
+                List<String> elements = Lists.newArrayList();
+                for (Object element : (Object[]) value) {
+                    elements.add(String.valueOf(element).replace(ARRAY_DELIMITER, ' '));
+                }
+                text = Joiner.on(ARRAY_DELIMITER).join(elements);
+            } else {
+                text = value.toString();
+            }
+            writer.write('"');
+            writer.write(text.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+}
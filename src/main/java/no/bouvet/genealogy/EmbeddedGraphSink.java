@@ -0,0 +1,247 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes through the transactional embedded API. Writes are committed in batches: at every
+ * {@link #commitPoint()} the open transaction is committed once at least {@code batchSize} nodes and
+ * relationships have been created in it, so the transaction state held in heap stays bounded. A transaction is
+ * only begun by the first read or write after a commit, so a sink that is not used holds none open.
+ */
+class EmbeddedGraphSink implements UpdatableGraphSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedGraphSink.class);
+
+    private static final int SCHEMA_TIMEOUT_MINUTES = 10;
+
+    private final GraphDatabaseService graphDb;
+    private final int batchSize;
+    private final boolean empty;
+    private final ImportMetrics metrics;
+
+    private Transaction tx;
+    private int pending;
+    private long committed;
+    private int batches;
+    private long batchStarted;
+    private Runnable beforeCommit;
+
+    EmbeddedGraphSink(GraphDatabaseService graphDb, int batchSize, ImportMetrics metrics) {
+        this.graphDb = graphDb;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        LOG.info("Committing every {} created nodes and relationships", batchSize);
+        try (Transaction readTx = graphDb.beginTx()) {
+            empty = !GlobalGraphOperations.at(graphDb).getAllNodes().iterator().hasNext();
+            readTx.success();
+        }
+    }
+
+    /**
+     * Sets a task to run in the open transaction right before it is committed, or none if null.
+     */
+    void beforeCommit(Runnable task) {
+        beforeCommit = task;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    @Override
+    public void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys) {
+        // Property writes are not counted in pending, so the open transaction is committed even if it created nothing
+        if (tx != null) {
+            commit();
+        }
+        try (Transaction schemaTx = graphDb.beginTx()) {
+            Schema schema = graphDb.schema();
+            uniqueKeys.forEach((label, key) -> {
+                if (!Iterables.any(schema.getConstraints(label), c -> Iterables.contains(c.getPropertyKeys(), key))) {
+                    LOG.info("Creating uniqueness constraint on :{}({})", label.name(), key);
+                    schema.constraintFor(label).assertPropertyIsUnique(key).create();
+                }
+            });
+            indexedKeys.forEach((label, key) -> {
+                if (!Iterables.any(schema.getIndexes(label), i -> Iterables.contains(i.getPropertyKeys(), key))) {
+                    LOG.info("Creating index on :{}({})", label.name(), key);
+                    schema.indexFor(label).on(key).create();
+                }
+            });
+            schemaTx.success();
+        }
+        try (Transaction awaitTx = graphDb.beginTx()) {
+            long started = System.currentTimeMillis();
+            graphDb.schema().awaitIndexesOnline(SCHEMA_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            LOG.info("Schema online after {} ms", System.currentTimeMillis() - started);
+            awaitTx.success();
+        }
+    }
+
+    @Override
+    public long createNode(Label label, Map<String, Object> properties) {
+        begin();
+        Node node = graphDb.createNode(label);
+        properties.forEach(node::setProperty);
+        pending++;
+        return node.getId();
+    }
+
+    @Override
+    public void setNodeProperty(long node, String key, Object value) {
+        begin();
+        graphDb.getNodeById(node).setProperty(key, value);
+    }
+
+    @Override
+    public Object getNodeProperty(long node, String key) {
+        begin();
+        return graphDb.getNodeById(node).getProperty(key, null);
+    }
+
+    @Override
+    public void removeNodeProperty(long node, String key) {
+        begin();
+        graphDb.getNodeById(node).removeProperty(key);
+    }
+
+    @Override
+    public void deleteNode(long node) {
+        begin();
+        Node toDelete = graphDb.getNodeById(node);
+        for (Relationship relationship : toDelete.getRelationships()) {
+            relationship.delete();
+            pending++;
+        }
+        toDelete.delete();
+        pending++;
+    }
+
+    @Override
+    public long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        begin();
+        Relationship relationship = graphDb.getNodeById(from).createRelationshipTo(graphDb.getNodeById(to), type);
+        properties.forEach(relationship::setProperty);
+        pending++;
+        return relationship.getId();
+    }
+
+    @Override
+    public Iterable<Long> findNodes(Label label, String key, Object value) {
+        begin();
+        try (ResourceIterator<Node> nodes = graphDb.findNodesByLabelAndProperty(label, key, value).iterator()) {
+            List<Long> ids = Lists.newArrayList();
+            while (nodes.hasNext()) {
+                ids.add(nodes.next().getId());
+            }
+            return ids;
+        }
+    }
+
+    @Override
+    public Iterable<Long> findNodes(Label label) {
+        begin();
+        List<Long> ids = Lists.newArrayList();
+        for (Node node : GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(label)) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public Iterable<Long> findRelated(long node, RelationshipType type) {
+        begin();
+        List<Long> ids = Lists.newArrayList();
+        for (Relationship relationship : graphDb.getNodeById(node).getRelationships(type, Direction.OUTGOING)) {
+            ids.add(relationship.getEndNode().getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public void deleteRelationships(long node, RelationshipType type, String key, Object value) {
+        begin();
+        for (Relationship relationship : graphDb.getNodeById(node).getRelationships(type, Direction.OUTGOING)) {
+            if (key == null || value.equals(relationship.getProperty(key, null))) {
+                relationship.delete();
+                pending++;
+            }
+        }
+    }
+
+    @Override
+    public void commitPoint() {
+        if (pending >= batchSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits the open transaction, and commits one for the task set with {@link #beforeCommit} even if there is
+     * none, so the task runs at every flush.
+     */
+    @Override
+    public void flush() {
+        if (tx != null || beforeCommit != null) {
+            begin();
+            commit();
+        }
+    }
+
+    @Override
+    public void discard() {
+        if (tx != null) {
+            tx.failure();
+            tx.close();
+            tx = null;
+        }
+        LOG.debug("Discarded {} nodes and relationships", pending);
+        pending = 0;
+    }
+
+    @Override
+    public void close() {
+        if (tx != null) {
+            tx.close();
+            tx = null;
+        }
+        LOG.info("Committed {} nodes and relationships in {} batches", committed, batches);
+    }
+
+    /**
+     * Begins a transaction unless one is open.
+     */
+    private void begin() {
+        if (tx == null) {
+            tx = graphDb.beginTx();
+            batchStarted = System.currentTimeMillis();
+        }
+    }
+
+    private void commit() {
+        if (beforeCommit != null) {
+            beforeCommit.run();
+        }
+        long started = System.nanoTime();
+        tx.success();
+        tx.close();
+        tx = null;
+        metrics.recordLatency(ImportMetrics.COMMIT, started);
+        committed += pending;
+        batches++;
+        LOG.info("Committed batch {} with {} nodes and relationships in {} ms ({} in total)",
+                new Object[]{batches, pending, System.currentTimeMillis() - batchStarted, committed});
+        pending = 0;
+    }
+}
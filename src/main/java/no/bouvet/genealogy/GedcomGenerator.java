@@ -0,0 +1,555 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a synthetic GEDCOM file with a chosen number of individuals, for measuring imports at sizes the sample file
+ * does not reach. The same seed and size always give the same file.
+ * <p>
+ * The counts that shape an import follow their distributions in min-slekt.ged: events per person and per family,
+ * their tags, children per family, names per person, citations per event and per name, and the depth of place
+ * paths. Sources and places are shared the way they are in the sample, a few of them cited by a large part of the
+ * events, and both grow in proportion to the number of individuals.
+ * <p>
+ * Families are built one generation after another: spouses are mostly unmarried children of earlier families, the
+ * others marry in from outside the file, and some remarry. Children take the surname of their father.
+ */
+class GedcomGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GedcomGenerator.class);
+
+    // Weights indexed by count, as counted in min-slekt.ged
+    private static final Distribution EVENTS_PER_PERSON =
+            new Distribution(97, 593, 445, 291, 129, 42, 14, 5, 5, 2, 2, 2, 0, 0, 0, 1);
+    private static final Distribution EVENTS_PER_FAMILY = new Distribution(76, 487, 41, 2);
+    private static final Distribution CHILDREN_PER_FAMILY =
+            new Distribution(273, 97, 73, 34, 31, 27, 26, 20, 12, 10, 0, 1, 2);
+    private static final Distribution NAMES_PER_PERSON = new Distribution(0, 1558, 61, 9);
+    private static final Distribution CITATIONS_PER_EVENT = new Distribution(968, 1998, 259, 63, 16, 7, 2, 2, 1);
+    private static final Distribution CITATIONS_PER_NAME = new Distribution(82, 1348, 148, 33, 13, 2, 1, 1);
+    private static final Distribution PLACE_DEPTH = new Distribution(0, 34, 451, 643, 124, 15);
+
+    private static final String[] PERSON_EVENTS = {"DEAT", "BIRT", "RESI", "BAPM", "OCCU", "BURI", "CENS", "CONF",
+            "EVEN", "NATI", "PROB", "ADOP", "NATU", "IMMI", "RELI", "RETI"};
+    private static final Distribution PERSON_EVENT_TAGS =
+            new Distribution(1381, 814, 481, 221, 159, 98, 63, 37, 33, 9, 7, 6, 4, 1, 1, 1);
+    private static final String[] FAMILY_EVENTS = {"MARR", "ENGA", "CENS", "DIV", "EVEN", "DIVF"};
+    private static final Distribution FAMILY_EVENT_TAGS = new Distribution(530, 33, 5, 3, 2, 2);
+    // Tags that a record has at most once, like a birth
+    private static final String ONCE = " BIRT DEAT BAPM BURI CONF ADOP NATU IMMI PROB RETI MARR ENGA DIV DIVF ";
+
+    private static final double HUSBAND = 595.0 / 606;
+    private static final double WIFE = 542.0 / 606;
+    private static final double MALE = 875.0 / 1628;
+    private static final double FEMALE = 750.0 / 1628;
+    private static final double REMARRIAGE = 0.06;
+    private static final double FROM_EARLIER_FAMILY = 0.5;
+    private static final double DATED = 2170.0 / 3322;
+    private static final double PLACED = 1267.0 / 3322;
+    private static final double NOTED = 299.0 / 3322;
+    private static final double PAGED = 0.7;
+    private static final double SOURCES_PER_PERSON = 118.0 / 1628;
+    private static final double PLACES_PER_PERSON = 343.0 / 1628;
+    private static final int MAX_PLACES = 500_000;
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+            "NOV", "DEC"};
+    private static final String[] MALE_NAMES = {"Ole", "Hans", "Johannes", "Anders", "Peder", "Nils", "Lars", "Jens",
+            "Karl", "Olav", "Johan", "Kristian", "Martin", "Andreas", "Jakob", "Halvor", "Knut", "Erik", "Einar", "Arne",
+            "Thorvald", "Sigurd", "Gunnar", "Harald", "Øystein"};
+    private static final String[] FEMALE_NAMES = {"Anne", "Marie", "Kari", "Ingeborg", "Karen", "Berit", "Marte",
+            "Anna", "Inger", "Elise", "Sofie", "Kristine", "Helene", "Gunhild", "Ragnhild", "Olea", "Dorthea", "Else",
+            "Astrid", "Signe", "Maren", "Johanne", "Birgitte", "Åse", "Guri"};
+    private static final String[] NAME_STEMS = {"Berg", "Dal", "Haug", "Li", "Moe", "Nes", "Vik", "Aas", "Bakk", "Bø",
+            "Strand", "Lund", "Holm", "Eng", "Myr", "Rud", "Sand", "Skog", "Stor", "Vest", "Øst", "Nord", "Sør", "Lie",
+            "Fjell", "Hov", "Tved", "Kvam", "Gjerd", "Sæt"};
+    private static final String[] NAME_ENDINGS = {"", "en", "e", "ås", "rud", "land", "stad", "heim", "bakken", "vold",
+            "sæter", "gård", "seth", "by", "nes", "vik"};
+    private static final String[] COUNTIES = {"Østfold", "Akershus", "Oslo", "Hedmark", "Oppland", "Buskerud",
+            "Vestfold", "Telemark", "Aust-Agder", "Vest-Agder", "Rogaland", "Hordaland", "Sogn og Fjordane",
+            "Møre og Romsdal", "Sør-Trøndelag", "Nord-Trøndelag", "Nordland", "Troms", "Finnmark"};
+    private static final String[] STREETS = {"gate", "veien", "gt", "vei", "plass", "bakken"};
+    private static final String[] OCCUPATIONS = {"gårdbruker", "snekker", "matros", "skipsfører", "lærer",
+            "husmann", "tjenestepike", "smed", "skomaker", "handelsmann", "fisker", "arbeider", "sømmerske",
+            "lensmann", "prest", "skoleholder", "tømmermann", "lagrettemann", "jordmor", "styrmann"};
+    private static final String[] EVENT_TYPES = {"Sykdom", "Utvandring", "Flytting", "Militærtjeneste"};
+    private static final String[] NOTES = {"Oppgitt fødested er", "Full dato fra", "Nevnt i skiftet etter",
+            "Bodde en tid på", "Opplysning fra", "Usikker identifikasjon, se"};
+
+    private final long seed;
+
+    // The people and families of the file, by index
+    private int individualCount;
+    private byte[] sex;
+    private int[] surname;
+    private int[] childOf;
+    private BitSet married;
+    // The first unmarried son and daughter of an earlier family
+    private int nextSon;
+    private int nextDaughter;
+    private int familyCount;
+    private int[] husband;
+    private int[] wife;
+    private int[] firstChild;
+    private int[] childCount;
+    // The families every individual is a spouse in, as ranges of spouseFamilies
+    private int[] spouseStart;
+    private int[] spouseFamilies;
+
+    private int sourceCount;
+    private int placeCount;
+    private Writer out;
+
+    GedcomGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a file of the given number of individuals, in UTF-8.
+     */
+    void write(int individuals, String gedcomFilename) throws IOException {
+        Preconditions.checkArgument(individuals > 0, "At least one individual is needed, not %s", individuals);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        buildFamilies(individuals, new SplittableRandom(seed));
+        sourceCount = Math.max(10, (int) (individuals * SOURCES_PER_PERSON));
+        placeCount = Math.max(50, Math.min(MAX_PLACES, (int) (individuals * PLACES_PER_PERSON)));
+
+        SplittableRandom random = new SplittableRandom(seed + 1);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(gedcomFilename),
+                Charsets.UTF_8), 1 << 16)) {
+            out = writer;
+            writeHeader(individuals);
+            for (int individual = 0; individual < individualCount; individual++) {
+                writeIndividual(individual, random);
+            }
+            for (int family = 0; family < familyCount; family++) {
+                writeFamily(family, random);
+            }
+            for (int source = 0; source < sourceCount; source++) {
+                writeSource(source, random);
+            }
+            line(0, "TRLR", null);
+        } finally {
+            out = null;
+        }
+        LOG.info("Wrote {} individuals, {} families and {} sources to '{}' in {}", new Object[]{individualCount,
+                familyCount, sourceCount, gedcomFilename, stopwatch.stop()});
+    }
+
+    private void buildFamilies(int individuals, SplittableRandom random) {
+        sex = new byte[individuals];
+        surname = new int[individuals];
+        childOf = new int[individuals];
+        married = new BitSet(individuals);
+        nextSon = 0;
+        nextDaughter = 0;
+        int capacity = individuals / 2 + 16;
+        husband = new int[capacity];
+        wife = new int[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        individualCount = 0;
+        familyCount = 0;
+
+        while (individualCount < individuals) {
+            if (familyCount == husband.length) {
+                capacity = familyCount * 2;
+                husband = Arrays.copyOf(husband, capacity);
+                wife = Arrays.copyOf(wife, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+            }
+            int family = familyCount++;
+
+            husband[family] = random.nextDouble() < HUSBAND ? spouse(family, 'M', -1, individuals, random) : -1;
+            int siblingsOf = husband[family] >= 0 ? childOf[husband[family]] : -1;
+            wife[family] = random.nextDouble() < WIFE ? spouse(family, 'F', siblingsOf, individuals, random) : -1;
+
+            int children = Math.min(CHILDREN_PER_FAMILY.sample(random), individuals - individualCount);
+            firstChild[family] = individualCount;
+            childCount[family] = children;
+            int familyName = husband[family] >= 0 ? surname[husband[family]]
+                    : wife[family] >= 0 ? surname[wife[family]] : skewed(surnames(), random);
+            for (int child = 0; child < children; child++) {
+                newIndividual(family, randomSex(random), familyName);
+            }
+        }
+        indexSpouses();
+    }
+
+    /**
+     * @return a spouse of the given sex for the family: someone married in a recent family, the oldest unmarried
+     * child of an earlier family, or someone new. The wife is never a sister of the husband.
+     */
+    private int spouse(int family, char sexOf, int siblingsOf, int individuals, SplittableRandom random) {
+        double choice = random.nextDouble();
+        if (choice < REMARRIAGE && family > 0) {
+            int earlier = family - 1 - random.nextInt(Math.min(family, 100));
+            int spouse = sexOf == 'M' ? husband[earlier] : wife[earlier];
+            if (spouse >= 0) {
+                return spouse;
+            }
+        }
+        if (choice < REMARRIAGE + FROM_EARLIER_FAMILY) {
+            int unmarried = nextUnmarried(sexOf, siblingsOf);
+            if (unmarried >= 0) {
+                married.set(unmarried);
+                return unmarried;
+            }
+        }
+        if (individualCount == individuals) {
+            return -1;
+        }
+        return newIndividual(-1, (byte) sexOf, skewed(surnames(), random));
+    }
+
+    /**
+     * @return the oldest unmarried child of the given sex that is not a child of the given family, or -1 if there is
+     * none
+     */
+    private int nextUnmarried(char sexOf, int excludedFamily) {
+        int first = sexOf == 'M' ? nextSon : nextDaughter;
+        while (first < individualCount && !unmarriedChild(first, sexOf)) {
+            first++;
+        }
+        if (sexOf == 'M') {
+            nextSon = first;
+        } else {
+            nextDaughter = first;
+        }
+        for (int candidate = first; candidate < individualCount; candidate++) {
+            if (unmarriedChild(candidate, sexOf) && childOf[candidate] != excludedFamily) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private boolean unmarriedChild(int individual, char sexOf) {
+        return childOf[individual] >= 0 && sex[individual] == sexOf && !married.get(individual);
+    }
+
+    private int newIndividual(int family, byte sexOf, int familyName) {
+        int individual = individualCount++;
+        sex[individual] = sexOf;
+        surname[individual] = familyName;
+        childOf[individual] = family;
+        return individual;
+    }
+
+    private void indexSpouses() {
+        spouseStart = new int[individualCount + 1];
+        for (int family = 0; family < familyCount; family++) {
+            countSpouse(husband[family]);
+            countSpouse(wife[family]);
+        }
+        for (int individual = 0; individual < individualCount; individual++) {
+            spouseStart[individual + 1] += spouseStart[individual];
+        }
+        spouseFamilies = new int[spouseStart[individualCount]];
+        int[] filled = new int[individualCount];
+        for (int family = 0; family < familyCount; family++) {
+            for (int spouse : new int[]{husband[family], wife[family]}) {
+                if (spouse >= 0) {
+                    spouseFamilies[spouseStart[spouse] + filled[spouse]++] = family;
+                }
+            }
+        }
+    }
+
+    private void countSpouse(int spouse) {
+        if (spouse >= 0) {
+            spouseStart[spouse + 1]++;
+        }
+    }
+
+    private void writeHeader(int individuals) throws IOException {
+        line(0, "HEAD", null);
+        line(1, "SOUR", "GedcomGenerator");
+        line(1, "GEDC", null);
+        line(2, "VERS", "5.5");
+        line(2, "FORM", "LINEAGE-LINKED");
+        line(1, "CHAR", "UTF-8");
+        line(1, "NOTE", "Synthetic file of " + individuals + " individuals, seed " + seed);
+    }
+
+    private void writeIndividual(int individual, SplittableRandom random) throws IOException {
+        record("I", individual, "INDI");
+        line(1, "REFN", Integer.toString(individual + 1));
+        int names = NAMES_PER_PERSON.sample(random);
+        String family = surname(surname[individual]);
+        for (int name = 0; name < names; name++) {
+            String given = givenName(sex[individual], random);
+            line(1, "NAME", given + " /" + family + "/");
+            line(2, "GIVN", given);
+            line(2, "SURN", family);
+            if (name == 0) {
+                writeCitations(2, CITATIONS_PER_NAME.sample(random), random);
+            }
+        }
+        if (sex[individual] != 'U') {
+            line(1, "SEX", String.valueOf((char) sex[individual]));
+        }
+        line(1, "CHAN", null);
+        line(2, "DATE", exactDate(2000 + random.nextInt(20), random));
+
+        int year = birthYear(individual, random);
+        writeEvents(EVENTS_PER_PERSON.sample(random), PERSON_EVENTS, PERSON_EVENT_TAGS, year, random);
+        for (int index = spouseStart[individual]; index < spouseStart[individual + 1]; index++) {
+            line(1, "FAMS", xref("F", spouseFamilies[index]));
+        }
+        if (childOf[individual] >= 0) {
+            line(1, "FAMC", xref("F", childOf[individual]));
+        }
+    }
+
+    private void writeFamily(int family, SplittableRandom random) throws IOException {
+        record("F", family, "FAM");
+        if (husband[family] >= 0) {
+            line(1, "HUSB", xref("I", husband[family]));
+        }
+        if (wife[family] >= 0) {
+            line(1, "WIFE", xref("I", wife[family]));
+        }
+        for (int child = firstChild[family]; child < firstChild[family] + childCount[family]; child++) {
+            line(1, "CHIL", xref("I", child));
+        }
+        int spouse = husband[family] >= 0 ? husband[family] : wife[family];
+        int year = (spouse >= 0 ? birthYear(spouse, random) : 1800) + 20 + random.nextInt(10);
+        writeEvents(EVENTS_PER_FAMILY.sample(random), FAMILY_EVENTS, FAMILY_EVENT_TAGS, year, random);
+    }
+
+    private void writeSource(int source, SplittableRandom random) throws IOException {
+        record("S", source, "SOUR");
+        String title = "Digitalarkivet: Folketelling " + (1801 + 10 * random.nextInt(10)) + ", Sted: "
+                + COUNTIES[random.nextInt(COUNTIES.length)] + ", Url: http://digitalarkivet.arkivverket.no/ft/sok/"
+                + (source + 1);
+        line(1, "TITL", title.substring(0, Math.min(title.length(), 60)));
+        if (title.length() > 60) {
+            line(2, "CONC", title.substring(60));
+        }
+        line(1, "ABBR", "FT-" + (source + 1));
+        if (random.nextDouble() < 72.0 / 118) {
+            line(1, "PUBL", "Riksarkivet/statsarkivene, " + (1801 + random.nextInt(200)));
+        }
+        if (random.nextDouble() < 39.0 / 118) {
+            line(1, "AUTH", givenName((byte) 'M', random) + " " + surname(skewed(surnames(), random)));
+        }
+        if (random.nextDouble() < 31.0 / 118) {
+            line(1, "NOTE", NOTES[random.nextInt(NOTES.length)] + " " + place(random));
+        }
+    }
+
+    private void writeEvents(int count, String[] tags, Distribution weights, int year, SplittableRandom random)
+            throws IOException {
+        StringBuilder written = new StringBuilder(" ");
+        for (int event = 0; event < count; event++) {
+            String tag = tags[weights.sample(random)];
+            while (written.indexOf(" " + tag + " ") >= 0 && ONCE.contains(" " + tag + " ")) {
+                tag = tags[weights.sample(random)];
+            }
+            written.append(tag).append(' ');
+
+            boolean dated = random.nextDouble() < DATED;
+            line(1, tag, eventValue(tag, dated, random));
+            if (tag.equals("EVEN")) {
+                line(2, "TYPE", EVENT_TYPES[random.nextInt(EVENT_TYPES.length)]);
+            }
+            if (dated) {
+                line(2, "DATE", date(year + eventYears(tag) + random.nextInt(3), random));
+            }
+            if (random.nextDouble() < PLACED) {
+                line(2, "PLAC", place(random));
+            }
+            if (random.nextDouble() < NOTED) {
+                line(2, "NOTE", NOTES[random.nextInt(NOTES.length)] + " " + place(random));
+            }
+            writeCitations(2, CITATIONS_PER_EVENT.sample(random), random);
+        }
+    }
+
+    private static String eventValue(String tag, boolean dated, SplittableRandom random) {
+        switch (tag) {
+            case "OCCU":
+                return OCCUPATIONS[random.nextInt(OCCUPATIONS.length)];
+            case "DEAT":
+                return dated ? null : "Y";
+            default:
+                return null;
+        }
+    }
+
+    private static int eventYears(String tag) {
+        switch (tag) {
+            case "DEAT":
+            case "BURI":
+            case "PROB":
+                return 60;
+            case "CONF":
+                return 15;
+            case "RESI":
+            case "OCCU":
+            case "CENS":
+                return 30;
+            default:
+                return 0;
+        }
+    }
+
+    private void writeCitations(int level, int count, SplittableRandom random) throws IOException {
+        for (int citation = 0; citation < count; citation++) {
+            line(level, "SOUR", xref("S", skewed(sourceCount, random)));
+            if (random.nextDouble() < PAGED) {
+                line(level + 1, "PAGE", "http://digitalarkivet.arkivverket.no/ft/person/pf0"
+                        + (1_000_000_000L + random.nextInt(1_000_000_000)));
+            }
+        }
+    }
+
+    /**
+     * People later in the file belong to later generations.
+     */
+    private int birthYear(int individual, SplittableRandom random) {
+        return 1650 + (int) (300L * individual / individualCount) + random.nextInt(20);
+    }
+
+    private static String date(int year, SplittableRandom random) {
+        double form = random.nextDouble();
+        if (form < 0.6) {
+            return exactDate(year, random);
+        } else if (form < 0.85) {
+            return Integer.toString(year);
+        } else if (form < 0.9) {
+            return "ABT " + year;
+        }
+        return "FROM " + year + " TO " + (year + 1 + random.nextInt(10));
+    }
+
+    private static String exactDate(int year, SplittableRandom random) {
+        int day = 1 + random.nextInt(28);
+        return (day < 10 ? "0" : "") + day + " " + MONTHS[random.nextInt(MONTHS.length)] + " " + year;
+    }
+
+    /**
+     * @return one of the places of the file, the first ones far more often than the last. A place is made up from its
+     * number, so none of them have to be kept.
+     */
+    private String place(SplittableRandom random) {
+        int number = skewed(placeCount, random);
+        SplittableRandom place = new SplittableRandom(seed * 31 + number);
+        int depth = PLACE_DEPTH.sample(place);
+        int county = place.nextInt(COUNTIES.length);
+        StringBuilder path = new StringBuilder(COUNTIES[county]);
+        if (depth > 1) {
+            path.insert(0, name(county * 40 + place.nextInt(40)) + ", ");
+        }
+        if (depth > 2) {
+            path.insert(0, name(skewed(surnames(), place)) + ", ");
+        }
+        if (depth > 3) {
+            path.insert(0, name(skewed(surnames(), place)) + "s " + STREETS[place.nextInt(STREETS.length)] + " "
+                    + (1 + place.nextInt(60)) + ", ");
+        }
+        if (depth > 4) {
+            path.insert(0, name(skewed(surnames(), place)) + " kirke, ");
+        }
+        return path.toString();
+    }
+
+    private static String givenName(byte sexOf, SplittableRandom random) {
+        String[] names = sexOf == 'F' ? FEMALE_NAMES : sexOf == 'M' ? MALE_NAMES
+                : random.nextBoolean() ? FEMALE_NAMES : MALE_NAMES;
+        String given = names[random.nextInt(names.length)];
+        return random.nextDouble() < 0.3 ? given + " " + names[random.nextInt(names.length)] : given;
+    }
+
+    private static String surname(int index) {
+        return name(index);
+    }
+
+    private static String name(int index) {
+        int stem = index % NAME_STEMS.length;
+        int ending = (index / NAME_STEMS.length) % NAME_ENDINGS.length;
+        int prefix = index / (NAME_STEMS.length * NAME_ENDINGS.length);
+        String name = NAME_STEMS[stem] + NAME_ENDINGS[ending];
+        return prefix == 0 ? name : NAME_STEMS[prefix % NAME_STEMS.length] + name.toLowerCase();
+    }
+
+    private static int surnames() {
+        return NAME_STEMS.length * NAME_ENDINGS.length * NAME_STEMS.length;
+    }
+
+    private static byte randomSex(SplittableRandom random) {
+        double choice = random.nextDouble();
+        return (byte) (choice < MALE ? 'M' : choice < MALE + FEMALE ? 'F' : 'U');
+    }
+
+    /**
+     * @return a number below the given one, with probabilities falling off like those of Zipf's law
+     */
+    private static int skewed(int bound, SplittableRandom random) {
+        return Math.min(bound - 1, (int) Math.pow(bound + 1, random.nextDouble()) - 1);
+    }
+
+    private void record(String prefix, int index, String tag) throws IOException {
+        out.write("0 ");
+        out.write(xref(prefix, index));
+        out.write(' ');
+        out.write(tag);
+        out.write("\r\n");
+    }
+
+    private void line(int level, String tag, String value) throws IOException {
+        out.write(Integer.toString(level));
+        out.write(' ');
+        out.write(tag);
+        if (value != null) {
+            out.write(' ');
+            out.write(value);
+        }
+        out.write("\r\n");
+    }
+
+    private static String xref(String prefix, int index) {
+        return "@" + prefix + (index + 1) + "@";
+    }
+
+    /**
+     * Draws counts with the given weights.
+     */
+    private static class Distribution {
+
+        private final int[] cumulative;
+
+        Distribution(int... weights) {
+            cumulative = new int[weights.length];
+            int total = 0;
+            for (int index = 0; index < weights.length; index++) {
+                total += weights[index];
+                cumulative[index] = total;
+            }
+        }
+
+        int sample(SplittableRandom random) {
+            int draw = random.nextInt(cumulative[cumulative.length - 1]);
+            int index = 0;
+            while (cumulative[index] <= draw) {
+                index++;
+            }
+            return index;
+        }
+    }
+}
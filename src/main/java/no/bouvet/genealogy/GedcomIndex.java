@@ -0,0 +1,168 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Stopwatch;
+import org.gedcom4j.model.AbstractElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * Sidecar index of a GEDCOM file that maps the xref of every level-0 record to the byte offset and length of the
+ * record, so that a single record can be read without parsing the rest of the file. The index is built in one pass
+ * over the file and stored next to it, and reused for as long as the size and modification time of the file match
+ * those it was built for.
+ */
+class GedcomIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GedcomIndex.class);
+
+    static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x47444958;
+    private static final int VERSION = 2;
+
+    private final GedcomTokenizer tokens;
+
+    private final RecordOffsets records;
+
+    private GedcomIndex(GedcomTokenizer tokens, RecordOffsets records) {
+        this.tokens = tokens;
+        this.records = records;
+    }
+
+    /**
+     * Opens the index of the GEDCOM file, building it first if there is none or if the file has changed since.
+     */
+    static GedcomIndex open(String gedcomFilename) throws IOException {
+        File gedcom = new File(gedcomFilename);
+        File sidecar = new File(gedcomFilename + SUFFIX);
+        GedcomTokenizer tokens = new GedcomTokenizer(gedcomFilename);
+        try {
+            RecordOffsets records = sidecar.exists() ? load(sidecar, gedcom) : null;
+            if (records == null) {
+                records = build(tokens, gedcom, sidecar);
+            }
+            return new GedcomIndex(tokens, records);
+        } catch (IOException | RuntimeException e) {
+            tokens.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * @param xref with or without the surrounding {@code @}
+     * @return the lines of the record, or null if there is no record with that xref
+     */
+    String text(String xref) {
+        int record = records.find(normalize(xref));
+        if (record == RecordOffsets.NOT_FOUND) {
+            return null;
+        }
+        return tokens.text(start(record), end(record));
+    }
+
+    /**
+     * @param xref with or without the surrounding {@code @}
+     * @return the INDI, FAM, SOUR or NOTE record with that xref as read by {@link GedcomRecordReader}, or null if
+     * there is none
+     */
+    AbstractElement read(String xref) {
+        int record = records.find(normalize(xref));
+        if (record == RecordOffsets.NOT_FOUND) {
+            return null;
+        }
+        return new GedcomRecordReader(tokens.slice(start(record), end(record)), true).next();
+    }
+
+    private long start(int record) {
+        return records.start(record) / tokens.bytesPerUnit();
+    }
+
+    private long end(int record) {
+        return (records.start(record) + records.length(record)) / tokens.bytesPerUnit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tokens.close();
+    }
+
+    private static String normalize(String xref) {
+        return xref.startsWith("@") ? xref : "@" + xref + "@";
+    }
+
+    /**
+     * @return the index, or null if it was built for another version of the GEDCOM file
+     */
+    private static RecordOffsets load(File sidecar, File gedcom) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != gedcom.length()
+                    || in.readLong() != gedcom.lastModified()) {
+                LOG.info("Index '{}' is out of date", sidecar);
+                return null;
+            }
+            int count = in.readInt();
+            RecordOffsets records = new RecordOffsets(count);
+            for (int index = 0; index < count; index++) {
+                records.add(in.readUTF(), in.readLong(), in.readInt());
+            }
+            LOG.info("Loaded index '{}' of {} records", sidecar, count);
+            return records;
+        }
+    }
+
+    private static RecordOffsets build(GedcomTokenizer whole, File gedcom, File sidecar) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        GedcomTokenizer tokens = whole.slice(whole.position(), whole.length());
+        RecordOffsets records = new RecordOffsets();
+        int count = 0;
+        File temporary = new File(sidecar.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(gedcom.length());
+            out.writeLong(gedcom.lastModified());
+            // The count is not known until the end, so it is patched in afterwards
+            out.writeInt(0);
+
+            String xref = null;
+            long start = 0;
+            while (tokens.next()) {
+                if (tokens.level() == 0) {
+                    if (xref != null) {
+                        add(records, out, xref, start, tokens.lineStart() * whole.bytesPerUnit());
+                        count++;
+                    }
+                    xref = tokens.xref();
+                    start = tokens.lineStart() * whole.bytesPerUnit();
+                }
+            }
+            if (xref != null) {
+                add(records, out, xref, start, whole.length() * whole.bytesPerUnit());
+                count++;
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(temporary, "rw")) {
+            file.seek(24);
+            file.writeInt(count);
+        }
+        if (!temporary.renameTo(sidecar) && !(sidecar.delete() && temporary.renameTo(sidecar))) {
+            throw new IOException("Could not write index " + sidecar);
+        }
+        LOG.info("Built index '{}' of {} records in {}", new Object[]{sidecar, records.size(), stopwatch.stop()});
+        return records;
+    }
+
+    private static void add(RecordOffsets records, DataOutputStream out, String xref, long start, long end)
+            throws IOException {
+        records.add(xref, start, end - start);
+        out.writeUTF(xref);
+        out.writeLong(start);
+        out.writeInt((int) (end - start));
+    }
+}
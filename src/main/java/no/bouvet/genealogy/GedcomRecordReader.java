@@ -0,0 +1,326 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads a GEDCOM file one level-0 record at a time instead of loading the whole object model. The lines come from a
+ * {@link GedcomTokenizer}, and each INDI, FAM, SOUR and NOTE record is built into the gedcom4j model classes the
+ * importer maps, filled in the way {@link org.gedcom4j.parser.GedcomParser} fills them. Only the parts of a record
+ * the importer stores are built; every other line is skipped without creating any objects for it.
+ * <p>
+ * References to other records are placeholders that only carry the xref, so consumers must resolve
+ * cross-references by xref themselves. A reader without family links does not even build placeholders for the
+ * families of an individual: every FAMC and FAMS line of an individual is the same shared placeholder, which only
+ * tells whether the individual is in any family.
+ */
+class GedcomRecordReader implements RecordSource, Closeable {
+
+    private static final TagTable<IndividualEventType> INDIVIDUAL_EVENTS =
+            new TagTable<>(IndividualEventType.values(), type -> type.tag);
+    private static final TagTable<IndividualAttributeType> INDIVIDUAL_ATTRIBUTES =
+            new TagTable<>(IndividualAttributeType.values(), type -> type.tag);
+    private static final TagTable<FamilyEventType> FAMILY_EVENTS =
+            new TagTable<>(FamilyEventType.values(), type -> type.tag);
+
+    private static final FamilyChild IN_SOME_FAMILY_AS_CHILD = new FamilyChild();
+    private static final FamilySpouse IN_SOME_FAMILY_AS_SPOUSE = new FamilySpouse();
+
+    private final GedcomTokenizer tokens;
+    private final boolean familyLinks;
+
+    /**
+     * @param familyLinks whether the FAMC and FAMS lines of individuals are read into placeholder families
+     */
+    GedcomRecordReader(String gedcomFilename, boolean familyLinks) throws IOException {
+        this(new GedcomTokenizer(gedcomFilename), familyLinks);
+    }
+
+    /**
+     * @param familyLinks whether the FAMC and FAMS lines of individuals are read into placeholder families
+     */
+    GedcomRecordReader(GedcomTokenizer tokens, boolean familyLinks) {
+        this.tokens = tokens;
+        this.familyLinks = familyLinks;
+    }
+
+    @Override
+    public AbstractElement next() {
+        while (tokens.next()) {
+            if (tokens.level() != 0 || !tokens.hasXref()) {
+                continue;
+            }
+            if (tokens.tagIs("INDI")) {
+                return readIndividual(tokens.xref());
+            } else if (tokens.tagIs("FAM")) {
+                return readFamily(tokens.xref());
+            } else if (tokens.tagIs("SOUR")) {
+                return readSource(tokens.xref());
+            } else if (tokens.tagIs("NOTE")) {
+                Note note = new Note();
+                note.xref = tokens.xref();
+                readLines(note.lines, 0);
+                return note;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the offset of the next record to read
+     */
+    long position() {
+        return tokens.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tokens.close();
+    }
+
+    private Individual readIndividual(String xref) {
+        Individual individual = new Individual();
+        individual.xref = xref;
+        while (nextChild(0)) {
+            if (tokens.tagIs("NAME")) {
+                individual.names.add(readName());
+            } else if (tokens.tagIs("SEX")) {
+                String sex = tokens.value();
+                if (sex != null) {
+                    individual.sex = new StringWithCustomTags(sex);
+                }
+            } else if (tokens.tagIs("NOTE")) {
+                individual.notes.add(readNote(1));
+            } else if (tokens.tagIs("SOUR")) {
+                individual.citations.add(readCitation(1));
+            } else if (tokens.tagIs("FAMC")) {
+                if (familyLinks) {
+                    FamilyChild child = new FamilyChild();
+                    child.family = family(tokens.value());
+                    individual.familiesWhereChild.add(child);
+                } else if (individual.familiesWhereChild.isEmpty()) {
+                    individual.familiesWhereChild.add(IN_SOME_FAMILY_AS_CHILD);
+                }
+            } else if (tokens.tagIs("FAMS")) {
+                if (familyLinks) {
+                    FamilySpouse spouse = new FamilySpouse();
+                    spouse.family = family(tokens.value());
+                    individual.familiesWhereSpouse.add(spouse);
+                } else if (individual.familiesWhereSpouse.isEmpty()) {
+                    individual.familiesWhereSpouse.add(IN_SOME_FAMILY_AS_SPOUSE);
+                }
+            } else {
+                IndividualEventType eventType = INDIVIDUAL_EVENTS.lookup(tokens);
+                IndividualAttributeType attributeType = eventType == null ? INDIVIDUAL_ATTRIBUTES.lookup(tokens) : null;
+                if (eventType != null) {
+                    IndividualEvent event = new IndividualEvent();
+                    event.type = eventType;
+                    readEvent(event, 1, false);
+                    individual.events.add(event);
+                } else if (attributeType != null) {
+                    IndividualAttribute attribute = new IndividualAttribute();
+                    attribute.type = attributeType;
+                    readEvent(attribute, 1, true);
+                    individual.attributes.add(attribute);
+                }
+            }
+        }
+        return individual;
+    }
+
+    private PersonalName readName() {
+        PersonalName name = new PersonalName();
+        String basic = tokens.value();
+        name.basic = basic != null ? basic : "";
+        while (nextChild(1)) {
+            if (tokens.tagIs("SOUR")) {
+                name.citations.add(readCitation(2));
+            }
+        }
+        return name;
+    }
+
+    private Family readFamily(String xref) {
+        Family family = new Family();
+        family.xref = xref;
+        while (nextChild(0)) {
+            if (tokens.tagIs("HUSB")) {
+                family.husband = individual(tokens.value());
+            } else if (tokens.tagIs("WIFE")) {
+                family.wife = individual(tokens.value());
+            } else if (tokens.tagIs("CHIL")) {
+                family.children.add(individual(tokens.value()));
+            } else {
+                FamilyEventType eventType = FAMILY_EVENTS.lookup(tokens);
+                if (eventType != null) {
+                    FamilyEvent event = new FamilyEvent();
+                    event.type = eventType;
+                    readEvent(event, 1, false);
+                    family.events.add(event);
+                }
+            }
+        }
+        return family;
+    }
+
+    private Source readSource(String xref) {
+        Source source = new Source(xref);
+        while (nextChild(0)) {
+            if (tokens.tagIs("TITL")) {
+                readLines(source.title, 1);
+            } else if (tokens.tagIs("AUTH")) {
+                readLines(source.originatorsAuthors, 1);
+            } else if (tokens.tagIs("PUBL")) {
+                readLines(source.publicationFacts, 1);
+            } else if (tokens.tagIs("NOTE")) {
+                source.notes.add(readNote(1));
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Attributes take their description from the value of the line, continued by CONC lines. gedcom4j keeps no
+     * description for events.
+     */
+    private void readEvent(Event event, int level, boolean described) {
+        if (described && tokens.hasValue()) {
+            event.description = new StringWithCustomTags(tokens.value());
+        }
+        while (nextChild(level)) {
+            if (tokens.tagIs("DATE")) {
+                String date = tokens.value();
+                if (date != null) {
+                    event.date = new StringWithCustomTags(date);
+                }
+            } else if (tokens.tagIs("PLAC")) {
+                String placeName = tokens.value();
+                if (placeName != null) {
+                    event.place = new Place();
+                    event.place.placeName = placeName;
+                }
+            } else if (tokens.tagIs("NOTE")) {
+                event.notes.add(readNote(level + 1));
+            } else if (tokens.tagIs("SOUR")) {
+                event.citations.add(readCitation(level + 1));
+            } else if (described && tokens.tagIs("CONC") && tokens.hasValue()) {
+                event.description = new StringWithCustomTags(
+                        (event.description != null ? event.description.value : "") + tokens.value());
+            }
+        }
+    }
+
+    /**
+     * Only the PAGE line itself makes up where in the source the citation points, as with gedcom4j.
+     */
+    private AbstractCitation readCitation(int level) {
+        if (!tokens.valueIsPointer()) {
+            CitationWithoutSource citation = new CitationWithoutSource();
+            readLines(citation.description, level);
+            return citation;
+        }
+        CitationWithSource citation = new CitationWithSource();
+        citation.source = new Source(tokens.value());
+        while (nextChild(level)) {
+            if (tokens.tagIs("PAGE") && tokens.hasValue()) {
+                citation.whereInSource = new StringWithCustomTags(tokens.value());
+            } else if (tokens.tagIs("QUAY") && tokens.hasValue()) {
+                citation.certainty = new StringWithCustomTags(tokens.value());
+            }
+        }
+        return citation;
+    }
+
+    private Note readNote(int level) {
+        Note note = new Note();
+        if (tokens.valueIsPointer()) {
+            note.xref = tokens.value();
+        } else {
+            readLines(note.lines, level);
+        }
+        return note;
+    }
+
+    /**
+     * Reads the value of the current line followed by its CONT and CONC lines. CONT starts a new line, and CONC
+     * continues the last one.
+     */
+    private void readLines(List<String> lines, int level) {
+        if (tokens.hasValue()) {
+            lines.add(tokens.value());
+        }
+        while (nextChild(level)) {
+            if (tokens.tagIs("CONT")) {
+                String value = tokens.value();
+                lines.add(value != null ? value : "");
+            } else if (tokens.tagIs("CONC") && tokens.hasValue()) {
+                String value = tokens.value();
+                if (lines.isEmpty()) {
+                    lines.add(value);
+                } else {
+                    lines.set(lines.size() - 1, lines.get(lines.size() - 1) + value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves to the next line one level below the given one, skipping the lines below children that were not read.
+     *
+     * @return false once the lines below the given level have been read
+     */
+    private boolean nextChild(int level) {
+        while (tokens.next()) {
+            if (tokens.level() <= level) {
+                tokens.pushBack();
+                return false;
+            }
+            if (tokens.level() == level + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Individual individual(String xref) {
+        Individual individual = new Individual();
+        individual.xref = xref;
+        return individual;
+    }
+
+    private static Family family(String xref) {
+        Family family = new Family();
+        family.xref = xref;
+        return family;
+    }
+
+    /**
+     * Finds the constant for the tag of the current line without building a String for the tag.
+     */
+    private static class TagTable<T> {
+
+        private final T[] constants;
+        private final String[] tags;
+
+        TagTable(T[] constants, Function<T, String> tag) {
+            this.constants = constants;
+            this.tags = new String[constants.length];
+            for (int index = 0; index < constants.length; index++) {
+                tags[index] = tag.apply(constants[index]);
+            }
+        }
+
+        T lookup(GedcomTokenizer tokens) {
+            for (int index = 0; index < tags.length; index++) {
+                if (tokens.tagIs(tags[index])) {
+                    return constants[index];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,22 +1,48 @@
 package no.bouvet.genealogy;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.sun.corba.se.spi.activation._RepositoryImplBase;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.gedcom4j.model.*;
 import org.gedcom4j.parser.GedcomParser;
+import org.gedcom4j.parser.GedcomParserException;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.google.common.collect.Iterables.isEmpty;
 import static java.util.stream.Collectors.toList;
@@ -25,11 +51,47 @@ public class GedcomToNeo4J {
 
     private static final Logger LOG = LoggerFactory.getLogger(GedcomToNeo4J.class);
 
+    /**
+     * Marks the messages logged once per record, which {@link RecordSamplingFilter} thins out in production.
+     */
+    static final Marker RECORD = MarkerFactory.getMarker(RecordSamplingFilter.RECORD);
+
+    /**
+     * Sampled like {@link #RECORD}, but in the {@code isInfoEnabled} check before the message, so that the arguments
+     * of the messages that are dropped are not built either
+     */
+    private static final Marker PARENT_RELATIONSHIP = recordMarker("createParentRelationship");
+    private static final Marker FAMILY_RELATIONSHIP = recordMarker("createFamilyRelationship");
+
     private final Label LBL_PERSON = DynamicLabel.label("Person");
     private final Label LBL_FAMILY = DynamicLabel.label("Familie");
     private final Label LBL_HENDELSE = DynamicLabel.label("Hendelse");
     private final Label LBL_STED = DynamicLabel.label("Sted");
     private final Label LBL_KILDE = DynamicLabel.label("Kilde");
+    private final Label LBL_SJEKKPUNKT = DynamicLabel.label("Sjekkpunkt");
+
+    // The properties the mapping writes on the nodes of every label and on the relationships of every type that has
+    // any, as name:type in the notation of neo4j-import where the value is not a single string. A record that is
+    // written again has them cleared first, and the CSV export has a column for each. The sjekksum and endret
+    // properties of delta imports, which the CSV export cannot make, are not among them.
+    static final Map<String, List<String>> NODE_PROPERTIES = ImmutableMap.of(
+            "Person", ImmutableList.of("id", "navn:string[]", "kjonn", "notater:string[]"),
+            "Familie", ImmutableList.of("id"),
+            "Hendelse", ImmutableList.of("type", "nokkel", "dato", "beskrivelse", "notater:string[]"),
+            "Sted", ImmutableList.of("navn"),
+            "Kilde", ImmutableList.of("id", "tittel:string[]", "publisering:string[]", "forfatter:string[]",
+                    "notater:string[]"));
+    static final Map<String, List<String>> RELATIONSHIP_PROPERTIES = ImmutableMap.of(
+            "MOR", ImmutableList.of("familie"),
+            "FAR", ImmutableList.of("familie"),
+            "SITAT", ImmutableList.of("sitat", "kvalitet"),
+            "NAVNESITAT", ImmutableList.of("sitat", "kvalitet"));
+
+    static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private static final int UNITS_PER_THREAD = 4;
+    // Small, so that the workers share the relationship phase evenly and a deadlock only rolls back a little work
+    private static final int RELATIONSHIP_BATCH_SIZE = 1000;
 
     private static Map<String, String> HENDELSE_TYPE_MAPPING = Maps.newHashMap();
 
@@ -56,201 +118,1256 @@ public class GedcomToNeo4J {
         HENDELSE_TYPE_MAPPING.put("RETI", "Pensjon");
     }
 
-        private GraphDatabaseService graphDb;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int threads = 1;
+    private boolean streaming;
+    private boolean pipelined;
+    private boolean parallelParsing;
+    private boolean delta;
+    private boolean upsert;
+    private boolean resume;
+
+    // Import-scoped state, shared with the workers of a parallel import. Access is synchronized on the maps and
+    // the trie themselves.
+    private boolean storeWasEmpty;
+    private XrefNodeIdMap persons;
+    private XrefNodeIdMap families;
+    private XrefNodeIdMap sources;
+    private PlaceTrie placeTrie;
+    private AtomicLong nodeCount;
+    private int relationshipsWritten;
+    // Whether relationships are written as soon as both their nodes exist, instead of being recorded for the
+    // relationship phase, for sinks that do not need to have all nodes written first
+    private boolean relationshipsInNodePhase;
+
+    // Journal of a streaming import that can be resumed
+    private ImportCheckpoint checkpoint;
+
+    private ImportMetrics metrics = new ImportMetrics();
+
+    // Index of the file a streaming import reads, for the records that are referred to before they are read
+    private GedcomIndex index;
+
+    // Event nodes of the records a delta or upsert import writes again, by key, for the events to be written to
+    private Map<String, Long> reusableEvents;
+
+    // Per-thread state
+    private GraphSink sink;
+    // The sink again, if it can look up and delete what the store holds already
+    private UpdatableGraphSink store;
+    private RelationshipBuffer relationships;
+
+    /**
+     * Sets how many nodes and relationships {@link #load(String, String)} creates per transaction. Commits only
+     * happen between families, so a transaction may exceed this size by the entities of one family.
+     */
+    public GedcomToNeo4J withBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets how many threads {@link #load(String, String)} writes with. With more than one, the families are split
+     * into work units that are written from a pool of workers, each with transactions of its own.
+     */
+    public GedcomToNeo4J withThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "Thread count must be positive: %s", threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Reads the GEDCOM file one record at a time with a {@link GedcomRecordReader} instead of parsing it into a
+     * complete object model first, so memory use no longer grows with the size of the file. Streaming imports run
+     * on a single thread.
+     */
+    public GedcomToNeo4J withStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * Runs a streaming import as an {@link ImportPipeline}, which parses, maps and writes the records on threads of
+     * their own.
+     */
+    public GedcomToNeo4J withPipeline(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Parses the GEDCOM file with a {@link ParallelGedcomParser} instead of gedcom4j's own parser, so that parsing
+     * runs on all cores before the model is imported.
+     */
+    public GedcomToNeo4J withParallelParsing(boolean parallelParsing) {
+        this.parallelParsing = parallelParsing;
+        return this;
+    }
+
+    /**
+     * Updates a store written by an earlier delta import instead of adding the whole file to it. Every Person,
+     * Familie and Kilde node keeps the hash and the CHAN date of the record it was written from, and only the records
+     * that were added, changed or removed since then are written. Delta imports read the complete model and run on a
+     * single thread.
+     */
+    public GedcomToNeo4J withDelta(boolean delta) {
+        this.delta = delta;
+        return this;
+    }
+
+    /**
+     * Merges the file into the store instead of adding it, so an import can be run again without duplicating
+     * anything. Every record of the file is written again onto the node it already has, found by its id, and events
+     * onto the node with their key, while records the file does not have are left alone. Relationships are identified
+     * by the nodes they connect, so those a record owns are replaced. Upsert imports read the complete model and run
+     * on a single thread.
+     */
+    public GedcomToNeo4J withUpsert(boolean upsert) {
+        this.upsert = upsert;
+        return this;
+    }
+
+    /**
+     * Resumes a streaming import that was interrupted, from the last batch it committed. Streaming imports into the
+     * embedded database keep an {@link ImportCheckpoint} next to the store while they run, which is deleted once
+     * they have finished.
+     */
+    public GedcomToNeo4J withResume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    /**
+     * @return the metrics of the last import, which are also published over JMX while it runs
+     */
+    public ImportMetricsMXBean metrics() {
+        return metrics;
+    }
 
     public void load(String gedcomFilename, String databaseName) throws Exception {
         LOG.info("load('{}', '{}'", gedcomFilename, databaseName);
+        startMetrics();
+        try {
+            loadEmbedded(gedcomFilename, databaseName);
+        } finally {
+            finishMetrics();
+        }
+    }
+
+    private void loadEmbedded(String gedcomFilename, String databaseName) throws Exception {
+        Preconditions.checkState(!streaming || threads == 1, "Streaming imports run on a single thread");
+        Preconditions.checkState(!pipelined || streaming, "Only streaming imports can run as a pipeline");
+        Preconditions.checkState(!delta || (!streaming && threads == 1), "Delta imports read the complete model on a single thread");
+        Preconditions.checkState(!upsert || (!streaming && threads == 1), "Upsert imports read the complete model on a single thread");
+        Preconditions.checkState(!delta || !upsert, "An import is either a delta or an upsert");
+        Preconditions.checkState(!resume || (streaming && !pipelined), "Only streaming imports without a pipeline can be resumed");
+
+        // Starting up the store and parsing the file do not depend on each other, so the file is parsed on threads
+        // of their own while the store starts up, and the import waits for whichever takes longer
+        ExecutorService parsers = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("import-parse-%d").setDaemon(true).build());
+        Future<Gedcom> parsing = streaming ? null : parsers.submit(() -> parse(gedcomFilename));
+        Future<RecordDigests> digesting = delta || upsert ? parsers.submit(() -> RecordDigests.of(gedcomFilename)) : null;
+        parsers.shutdown();
+
+        GraphDatabaseService graphDb;
+        Thread shutdownHook;
+        try {
+            Stopwatch startup = Stopwatch.createStarted();
+            graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseName);
+            shutdownHook = registerShutdownHook(graphDb);
+            LOG.info("Started the store in {}", startup);
+        } catch (RuntimeException e) {
+            parsers.shutdownNow();
+            throw e;
+        }
+        try {
+            if (streaming && !pipelined) {
+                try (EmbeddedGraphSink embeddedSink = new EmbeddedGraphSink(graphDb, batchSize, metrics)) {
+                    importRecords(gedcomFilename, embeddedSink, new File(databaseName + ImportCheckpoint.SUFFIX));
+                }
+            } else if (streaming) {
+                try (GraphSink embeddedSink = new EmbeddedGraphSink(graphDb, batchSize, metrics)) {
+                    importRecords(gedcomFilename, embeddedSink);
+                }
+            } else if (delta || upsert) {
+                RecordDigests digests = await(digesting, "hashing the records");
+                Gedcom gedcom = await(parsing, "parsing");
+
+                try (UpdatableGraphSink embeddedSink = new EmbeddedGraphSink(graphDb, batchSize, metrics)) {
+                    importChanges(gedcom, digests, embeddedSink);
+                }
+            } else {
+                Gedcom gedcom = await(parsing, "parsing");
+
+                try (GraphSink embeddedSink = new EmbeddedGraphSink(graphDb, batchSize, metrics)) {
+                    importFamilies(gedcom, embeddedSink,
+                            threads > 1 ? () -> new EmbeddedGraphSink(graphDb, batchSize, metrics) : null);
+                }
+            }
+        } finally {
+            parsers.shutdownNow();
+            shutdown(graphDb, shutdownHook);
+        }
+    }
+
+    /**
+     * @param what what the task does, for the log
+     * @return the result of the task, once it has finished, or the exception it failed with
+     */
+    private static <T> T await(Future<T> task, String what) throws Exception {
+        Stopwatch waited = Stopwatch.createStarted();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            LOG.info("Waited {} for {}", waited, what);
+        }
+    }
+
+    /**
+     * Builds a new store with the {@link BatchInserter} API instead of the transactional one. The resulting graph
+     * is the same as the one written by {@link #load(String, String)}, but the store must not exist beforehand and
+     * must not be opened by anyone else until the import has finished.
+     */
+    public void loadBatch(String gedcomFilename, String storeDir) throws Exception {
+        LOG.info("loadBatch('{}', '{}')", gedcomFilename, storeDir);
+        startMetrics();
+        try {
+            loadWithInserter(gedcomFilename, storeDir);
+        } finally {
+            finishMetrics();
+        }
+    }
+
+    private void loadWithInserter(String gedcomFilename, String storeDir) throws Exception {
+        Preconditions.checkState(!pipelined || streaming, "Only streaming imports can run as a pipeline");
+        Preconditions.checkState(!delta && !upsert, "The batch inserter cannot update an existing store");
+        Preconditions.checkState(!resume, "The batch inserter writes nothing to the store before it has finished, so there is nothing to resume");
+
+        String[] existing = new File(storeDir).list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalStateException("Batch import needs a new store, but '" + storeDir + "' is not empty");
+        }
+
+        if (streaming) {
+            try (GraphSink batchSink = new BatchInserterGraphSink(BatchInserters.inserter(storeDir))) {
+                importRecords(gedcomFilename, batchSink);
+            }
+        } else {
+            Gedcom gedcom = parse(gedcomFilename);
+
+            BatchInserter inserter = BatchInserters.inserter(storeDir);
+            try (GraphSink batchSink = new BatchInserterGraphSink(inserter)) {
+                importFamilies(gedcom, batchSink, null);
+            }
+        }
+    }
+
+    /**
+     * Runs the import into an {@link InMemoryGraphSink} instead of a store, so that the throughput of the mapping can
+     * be measured and profiled without the cost of writing to Neo4j. The graph is dropped when the import is done.
+     */
+    public void loadInMemory(String gedcomFilename) throws Exception {
+        LOG.info("loadInMemory('{}')", gedcomFilename);
+        Preconditions.checkState(!pipelined || streaming, "Only streaming imports can run as a pipeline");
+        Preconditions.checkState(threads == 1, "In-memory imports run on a single thread");
+        Preconditions.checkState(!delta && !upsert, "In-memory imports have no existing store to update");
+        Preconditions.checkState(!resume, "In-memory imports keep nothing to resume");
+
+        startMetrics();
+        try {
+            if (streaming) {
+                try (GraphSink memorySink = new InMemoryGraphSink()) {
+                    importRecords(gedcomFilename, memorySink);
+                }
+            } else {
+                Gedcom gedcom = parse(gedcomFilename);
+
+                try (GraphSink memorySink = new InMemoryGraphSink()) {
+                    importFamilies(gedcom, memorySink, null);
+                }
+            }
+        } finally {
+            finishMetrics();
+        }
+    }
+
+    /**
+     * Writes the graph as CSV files for neo4j-import into a new directory instead of into a store, see
+     * {@link CsvGraphSink}. Bulk loading the files is the fastest way to build a large store. Node ids are known as
+     * soon as the nodes are created, so relationships are written right away instead of being recorded for a
+     * relationship phase, and the export holds little more than the parsed file and the ids of the records.
+     */
+    public void exportCsv(String gedcomFilename, String directory) throws Exception {
+        LOG.info("exportCsv('{}', '{}')", gedcomFilename, directory);
+        Preconditions.checkState(!streaming, "The CSV export writes every node once, so it reads the complete model");
+        Preconditions.checkState(threads == 1, "The CSV export runs on a single thread");
+        Preconditions.checkState(!delta && !upsert, "The CSV export cannot update an existing store");
+        Preconditions.checkState(!resume, "The CSV export cannot be resumed");
+
+        startMetrics();
+        try {
+            Gedcom gedcom = parse(gedcomFilename);
+
+            try (GraphSink csvSink = new CsvGraphSink(new File(directory), NODE_PROPERTIES, RELATIONSHIP_PROPERTIES)) {
+                relationshipsInNodePhase = true;
+                importFamilies(gedcom, csvSink, null);
+            }
+        } finally {
+            relationshipsInNodePhase = false;
+            finishMetrics();
+        }
+    }
 
-        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseName);
-        registerShutdownHook(graphDb);
+    private void startMetrics() {
+        metrics = new ImportMetrics();
+        metrics.register();
+    }
 
+    private void finishMetrics() {
+        LOG.info("Import metrics: {}", metrics.getSummary());
+        metrics.unregister();
+    }
+
+    /**
+     * Both parsers read the file in the character set {@link GedcomTokenizer} detects, so no mode needs the file
+     * converted beforehand.
+     */
+    private Gedcom parse(String gedcomFilename) throws Exception {
+        if (parallelParsing) {
+            return new ParallelGedcomParser().parse(gedcomFilename);
+        }
         GedcomParser parser = new GedcomParser();
-        parser.load(gedcomFilename);
-
-        try (Transaction tx = graphDb.beginTx()) {
-            parser.gedcom.families.values().forEach(f -> {
-                Node family = createFamily(f);
-
-                Node mother = createFamilyRelationship(family, f.wife, FamilieRelasjoner.HUSTRU);
-                Node father = createFamilyRelationship(family, f.husband, FamilieRelasjoner.EKTEMANN);
-                f.children.forEach(c -> {
-                    Node child = createFamilyRelationship(family, c, FamilieRelasjoner.BARN);
-                    createParentRelationship(child, mother, PersonRelasjoner.MOR, makeId(f.xref));
-                    createParentRelationship(child, father, PersonRelasjoner.FAR, makeId(f.xref));
+        try (InputStream utf8 = new GedcomTranscodingStream(new GedcomTokenizer(gedcomFilename))) {
+            parser.load(new BufferedInputStream(utf8));
+        }
+        return parser.gedcom;
+    }
+
+    /**
+     * @param workerSinks opens a sink for the calling worker thread, or null to import on the calling thread only
+     */
+    private void importFamilies(Gedcom gedcom, GraphSink target, Supplier<UpdatableGraphSink> workerSinks) throws InterruptedException {
+        startImport(target, new XrefNodeIdMap(gedcom.individuals.size()), new XrefNodeIdMap(gedcom.families.size()),
+                new XrefNodeIdMap(gedcom.sources.size()));
+
+        Stopwatch nodePhase = Stopwatch.createStarted();
+        List<RelationshipBuffer> buffers;
+        if (workerSinks == null) {
+            createNodes(gedcom.families.values());
+            buffers = relationships != null ? ImmutableList.of(relationships) : ImmutableList.of();
+        } else {
+            // The workers write through sinks of their own, so the target commits what it has and holds no
+            // transaction open while they run
+            target.flush();
+            buffers = createNodesInParallel(partition(Lists.newArrayList(gedcom.families.values())), workerSinks);
+        }
+        finishImport(nodePhase, buffers, workerSinks);
+    }
+
+    /**
+     * Compares the records of the file with the nodes of the store and writes the differences. Removed records are
+     * deleted, and changed ones are cleared and populated again on the node they had, while new ones are created as
+     * in a full import. Families own the relationships to their members and the MOR and FAR relationships between
+     * them, so those are only rewritten when the family itself has changed.
+     * <p>
+     * An upsert import counts every record of the file as changed and removes nothing.
+     */
+    private void importChanges(Gedcom gedcom, RecordDigests digests, UpdatableGraphSink target) throws InterruptedException {
+        Set<String> members = Sets.newHashSet();
+        gedcom.families.values().forEach(f -> {
+            if (f.wife != null) {
+                members.add(makeId(f.wife.xref));
+            }
+            if (f.husband != null) {
+                members.add(makeId(f.husband.xref));
+            }
+            f.children.forEach(c -> members.add(makeId(c.xref)));
+        });
+
+        useSink(target);
+        XrefNodeIdMap existingPersons = new XrefNodeIdMap();
+        XrefNodeIdMap existingFamilies = new XrefNodeIdMap();
+        XrefNodeIdMap existingSources = new XrefNodeIdMap();
+        // Individuals are only imported as members of a family, so one that no family refers to any more is removed
+        RecordChanges personChanges = compare(LBL_PERSON, digests.individuals(), members::contains, existingPersons);
+        RecordChanges familyChanges = compare(LBL_FAMILY, digests.families(), id -> gedcom.families.containsKey("@" + id + "@"), existingFamilies);
+        RecordChanges sourceChanges = compare(LBL_KILDE, digests.sources(), id -> gedcom.sources.containsKey("@" + id + "@"), existingSources);
+        startImport(target, existingPersons, existingFamilies, existingSources);
+
+        Stopwatch nodePhase = Stopwatch.createStarted();
+        reusableEvents = Maps.newHashMap();
+        familyChanges.removed.forEach(node -> {
+            clearFamily(node);
+            store.deleteNode(node);
+            sink.commitPoint();
+        });
+        personChanges.removed.forEach(node -> {
+            store.findRelated(node, PersonRelasjoner.HENDELSE).forEach(store::deleteNode);
+            store.deleteNode(node);
+            sink.commitPoint();
+        });
+        sourceChanges.removed.forEach(node -> {
+            store.deleteNode(node);
+            sink.commitPoint();
+        });
+
+        sourceChanges.changed.forEach(id -> {
+            long node = sources.get(id);
+            clearProperties(node, LBL_KILDE);
+            populateSource(node, gedcom.sources.get("@" + id + "@"));
+            sink.commitPoint();
+        });
+        personChanges.changed.forEach(id -> {
+            long node = persons.get(id);
+            detachEvents(node, PersonRelasjoner.HENDELSE);
+            store.deleteRelationships(node, PersonRelasjoner.SITAT, null, null);
+            store.deleteRelationships(node, PersonRelasjoner.NAVNESITAT, null, null);
+            clearProperties(node, LBL_PERSON);
+            populateIndividual(node, gedcom.individuals.get("@" + id + "@"));
+            sink.commitPoint();
+        });
+        familyChanges.changed.forEach(id -> {
+            clearFamily(families.get(id));
+            sink.commitPoint();
+        });
+
+        List<Family> familiesToWrite = gedcom.families.values().stream()
+                .filter(f -> familyChanges.changed.contains(makeId(f.xref)) || families.get(makeId(f.xref)) == XrefNodeIdMap.NOT_FOUND)
+                .collect(toList());
+        createNodes(familiesToWrite);
+        reusableEvents.values().forEach(event -> {
+            store.deleteNode(event);
+            sink.commitPoint();
+        });
+        LOG.info("{}: removed {} events the records no longer have", mode(), reusableEvents.size());
+        reusableEvents = null;
+
+        int written = storeDigests(LBL_PERSON, persons, digests.individuals(), personChanges)
+                + storeDigests(LBL_FAMILY, families, digests.families(), familyChanges)
+                + storeDigests(LBL_KILDE, sources, digests.sources(), sourceChanges);
+        sink.flush();
+        LOG.info("{}: wrote {} added or changed records, removed {} persons, {} families and {} sources",
+                new Object[]{mode(), written, personChanges.removed.size(), familyChanges.removed.size(), sourceChanges.removed.size()});
+        finishImport(nodePhase, ImmutableList.of(relationships), null);
+    }
+
+    private String mode() {
+        return delta ? "Delta" : "Upsert";
+    }
+
+    /**
+     * Reads the id and the stored hash of every node with the label. Nodes of records that are still in the file go
+     * into the identity map, and are changed if their hash differs from the one of the record. In an upsert import
+     * they are all changed, and the others are kept in the identity map instead of being removed.
+     */
+    private RecordChanges compare(Label label, Map<String, RecordDigests.Digest> digests, Predicate<String> imported,
+                                  XrefNodeIdMap identities) {
+        RecordChanges changes = new RecordChanges();
+        for (long node : store.findNodes(label)) {
+            String id = (String) sink.getNodeProperty(node, "id");
+            if (!imported.test(id) && delta) {
+                changes.removed.add(node);
+                continue;
+            }
+            identities.put(id, node);
+            // Records that are referred to, but not defined, have no digest and nothing to change
+            RecordDigests.Digest digest = digests.get(id);
+            if (!imported.test(id) || (delta && (digest == null
+                    || Long.valueOf(digest.hash).equals(sink.getNodeProperty(node, "sjekksum"))))) {
+                changes.unchanged.add(id);
+            } else {
+                changes.changed.add(id);
+            }
+        }
+        LOG.info("{}: {} {} nodes, {} changed and {} removed",
+                new Object[]{mode(), identities.size() + changes.removed.size(), label.name(), changes.changed.size(), changes.removed.size()});
+        return changes;
+    }
+
+    /**
+     * Stores the hash and the CHAN date on the nodes that were written by this import.
+     *
+     * @return the number of nodes updated
+     */
+    private int storeDigests(Label label, XrefNodeIdMap identities, Map<String, RecordDigests.Digest> digests,
+                             RecordChanges changes) {
+        int written = 0;
+        for (Map.Entry<String, RecordDigests.Digest> record : digests.entrySet()) {
+            long node = identities.get(record.getKey());
+            if (node == XrefNodeIdMap.NOT_FOUND || changes.unchanged.contains(record.getKey())) {
+                continue;
+            }
+            sink.setNodeProperty(node, "sjekksum", record.getValue().hash);
+            if (record.getValue().changed != null) {
+                sink.setNodeProperty(node, "endret", record.getValue().changed);
+            } else {
+                store.removeNodeProperty(node, "endret");
+            }
+            sink.commitPoint();
+            written++;
+        }
+        LOG.debug("Stored digests on {} {} nodes", written, label.name());
+        return written;
+    }
+
+    /**
+     * Detaches the events of the family, and deletes the relationships to its members and the MOR and FAR
+     * relationships it made between them.
+     */
+    private void clearFamily(long family) {
+        Object id = sink.getNodeProperty(family, "id");
+        for (long child : store.findRelated(family, FamilieRelasjoner.BARN)) {
+            store.deleteRelationships(child, PersonRelasjoner.MOR, "familie", id);
+            store.deleteRelationships(child, PersonRelasjoner.FAR, "familie", id);
+        }
+        detachEvents(family, FamilieRelasjoner.HENDELSE);
+        for (FamilieRelasjoner relation : new FamilieRelasjoner[]{FamilieRelasjoner.HUSTRU, FamilieRelasjoner.EKTEMANN, FamilieRelasjoner.BARN}) {
+            store.deleteRelationships(family, relation, null, null);
+        }
+    }
+
+    /**
+     * Deletes the relationships to the events of a record that is written again and keeps the events for
+     * {@link #createEvent} to write to, so events keep their nodes. Events without a key are deleted.
+     */
+    private void detachEvents(long node, RelationshipType type) {
+        for (long event : store.findRelated(node, type)) {
+            Object key = sink.getNodeProperty(event, "nokkel");
+            if (key == null) {
+                store.deleteNode(event);
+            } else {
+                reusableEvents.put((String) key, event);
+            }
+        }
+        store.deleteRelationships(node, type, null, null);
+    }
+
+    private void importRecords(String gedcomFilename, GraphSink target) throws Exception {
+        try (GedcomRecordReader reader = new GedcomRecordReader(gedcomFilename, false);
+             GedcomIndex records = GedcomIndex.open(gedcomFilename)) {
+            startImport(target, new XrefNodeIdMap(), new XrefNodeIdMap(), new XrefNodeIdMap());
+            startStreaming(records);
+
+            if (pipelined) {
+                new ImportPipeline().run(reader, target, (source, commands) -> {
+                    useSink(commands);
+                    importRecords(source);
                 });
-                f.events.forEach(e -> family.createRelationshipTo(createEvent(e, e.type.tag), FamilieRelasjoner.HENDELSE));
+            } else {
+                importRecords(reader);
+            }
+        } finally {
+            index = null;
+        }
+    }
+
+    private void importRecords(RecordSource records) throws IOException, GedcomParserException, InterruptedException {
+        Stopwatch nodePhase = Stopwatch.createStarted();
+        createNodes(records);
+        sink.flush();
+        finishImport(nodePhase, ImmutableList.of(), null);
+    }
+
+    /**
+     * Runs a streaming import that journals its progress in the checkpoint file before every commit, and a marker
+     * node in the store holds the sequence number of the last block that was committed. The marker is committed
+     * before anything else and deleted last, so an import without one has not written anything yet if its journal
+     * has no blocks, and has finished if it has. A resumed import restores the identity maps and the place trie
+     * from the journal and goes on with the next record. Every record is written completely, relationships
+     * included, in the transaction that reads it, so there is nothing else to restore.
+     */
+    private void importRecords(String gedcomFilename, EmbeddedGraphSink target, File checkpointFile) throws Exception {
+        try (GedcomTokenizer tokens = new GedcomTokenizer(gedcomFilename);
+             GedcomIndex records = GedcomIndex.open(gedcomFilename)) {
+            long position = tokens.position();
+            long marker;
+            if (resume) {
+                Preconditions.checkState(checkpointFile.exists(), "There is no import to resume in '%s'", checkpointFile);
+                Long existing = Iterables.getFirst(target.findNodes(LBL_SJEKKPUNKT), null);
+                if (existing == null && ImportCheckpoint.hasBlocks(checkpointFile)) {
+                    LOG.info("The import had finished, deleting '{}'", checkpointFile);
+                    Preconditions.checkState(checkpointFile.delete(), "Could not delete '%s'", checkpointFile);
+                    return;
+                }
+                checkpoint = ImportCheckpoint.resume(checkpointFile, gedcomFilename,
+                        existing != null ? (Long) target.getNodeProperty(existing, "sekvens") : 0);
+                marker = existing != null ? existing : createMarker(target);
+
+                startImport(target, checkpoint.identities(LBL_PERSON), checkpoint.identities(LBL_FAMILY),
+                        checkpoint.identities(LBL_KILDE), checkpoint.storeWasEmpty());
+                startStreaming(records);
+                placeTrie = checkpoint.placeTrie();
+                if (checkpoint.position() >= 0) {
+                    position = checkpoint.position();
+                }
+            } else {
+                Preconditions.checkState(!checkpointFile.exists(),
+                        "'%s' is left from an import that did not finish. Resume it, or delete it to start over", checkpointFile);
+                startImport(target, new XrefNodeIdMap(), new XrefNodeIdMap(), new XrefNodeIdMap(), target.isEmpty());
+                startStreaming(records);
+                checkpoint = ImportCheckpoint.create(checkpointFile, gedcomFilename, storeWasEmpty);
+                marker = createMarker(target);
+            }
+
+            GedcomRecordReader reader = new GedcomRecordReader(tokens.slice(position, tokens.length()), false);
+            target.beforeCommit(() -> {
+                try {
+                    target.setNodeProperty(marker, "sekvens", checkpoint.write(reader.position()));
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
             });
-            tx.success();
+            importRecords(reader);
+
+            target.beforeCommit(null);
+            target.deleteNode(marker);
+            target.flush();
+            checkpoint.delete();
+            checkpoint = null;
+        } finally {
+            index = null;
         }
     }
 
-    private void createParentRelationship(Node child, Node parent, RelationshipType relation, String familyRef) {
+    private long createMarker(GraphSink target) {
+        long marker = target.createNode(LBL_SJEKKPUNKT, ImmutableMap.of("sekvens", 0L));
+        target.flush();
+        return marker;
+    }
+
+    /**
+     * Both ends of every relationship are known when it is added, since records that are referred to before they
+     * are read are read through the index there and then, so relationships are written right away. Apart from the
+     * identity maps and the place trie, a streaming import holds nothing but the record it is reading.
+     */
+    private void startStreaming(GedcomIndex records) {
+        index = records;
+        relationships = null;
+    }
+
+    private void useSink(GraphSink target) {
+        sink = target;
+        store = target instanceof UpdatableGraphSink ? (UpdatableGraphSink) target : null;
+    }
+
+    private void startImport(GraphSink target, XrefNodeIdMap persons, XrefNodeIdMap families, XrefNodeIdMap sources) {
+        useSink(target);
+        startImport(target, persons, families, sources, store == null || store.isEmpty());
+    }
+
+    /**
+     * @param storeWasEmpty whether the store was empty when the import started, which a resumed import takes from
+     *                      its checkpoint
+     */
+    void startImport(GraphSink target, XrefNodeIdMap persons, XrefNodeIdMap families, XrefNodeIdMap sources,
+                     boolean storeWasEmpty) {
+        useSink(target);
+        Preconditions.checkArgument(storeWasEmpty || store != null,
+                "Only an UpdatableGraphSink can write to a store that holds nodes already");
+        this.storeWasEmpty = storeWasEmpty;
+        this.persons = persons;
+        this.families = families;
+        this.sources = sources;
+        placeTrie = new PlaceTrie();
+        relationships = relationshipsInNodePhase ? null : new RelationshipBuffer();
+        nodeCount = new AtomicLong();
+        relationshipsWritten = 0;
+        if (!storeWasEmpty) {
+            createSchema();
+        }
+    }
+
+    private void finishImport(Stopwatch nodePhase, List<RelationshipBuffer> buffers, Supplier<UpdatableGraphSink> workerSinks)
+            throws InterruptedException {
+        long relationshipCount = buffers.stream().mapToLong(RelationshipBuffer::size).sum();
+        if (relationships == null) {
+            LOG.info("Node phase: created {} nodes and {} relationships in {}",
+                    new Object[]{nodeCount, relationshipsWritten, nodePhase.stop()});
+        } else {
+            LOG.info("Node phase: created {} nodes and recorded {} relationships in {}",
+                    new Object[]{nodeCount, relationshipCount, nodePhase.stop()});
+        }
+
+        if (storeWasEmpty) {
+            // Nothing is looked up in an empty store during the import, so the schema is only needed afterwards,
+            // and building it once over the finished nodes is far cheaper than maintaining it on every write.
+            Stopwatch schemaPhase = Stopwatch.createStarted();
+            createSchema();
+            LOG.info("Schema phase: created schema in {}", schemaPhase.stop());
+        }
+
+        if (relationships == null) {
+            return;
+        }
+        Stopwatch relationshipPhase = Stopwatch.createStarted();
+        if (workerSinks == null) {
+            createRelationships();
+        } else {
+            createRelationshipsInParallel(buffers, workerSinks);
+        }
+        LOG.info("Relationship phase: created {} relationships in {}", relationshipCount, relationshipPhase.stop());
+    }
+
+    private void createSchema() {
+        sink.createSchema(ImmutableMap.of(LBL_PERSON, "id", LBL_FAMILY, "id", LBL_KILDE, "id"),
+                ImmutableMap.of(LBL_STED, "navn"));
+    }
+
+    /**
+     * Creates every node of the import and records the relationships between them in {@link #relationships}, or
+     * writes them if there is no relationship phase.
+     */
+    private void createNodes(Collection<Family> familiesToImport) {
+        familiesToImport.forEach(f -> {
+            createNodes(f);
+            sink.commitPoint();
+        });
+        sink.flush();
+    }
+
+    /**
+     * Creates the family with its members and events. In a streaming import the members are placeholders, whose
+     * records are read through the index.
+     */
+    private void createNodes(Family f) {
+        long family = createFamily(f);
+
+        Individual wife = member(f, f.wife);
+        Individual husband = member(f, f.husband);
+        Long mother = createFamilyRelationship(family, f, wife, FamilieRelasjoner.HUSTRU);
+        Long father = createFamilyRelationship(family, f, husband, FamilieRelasjoner.EKTEMANN);
+        f.children.forEach(placeholder -> {
+            Individual c = member(f, placeholder);
+            long child = createFamilyRelationship(family, f, c, FamilieRelasjoner.BARN);
+            createParentRelationship(child, c, mother, wife, PersonRelasjoner.MOR, makeId(f.xref));
+            createParentRelationship(child, c, father, husband, PersonRelasjoner.FAR, makeId(f.xref));
+        });
+        createFamilyEvents(family, f);
+    }
+
+    /**
+     * Creates the nodes of the records as they are read. Records that are referred to before they are read, like
+     * the members of a family, cited sources and shared notes, are read through the index when they are needed.
+     * Sources and notes are only written where they are referred to, so their own records are skipped.
+     */
+    private void createNodes(RecordSource records) throws IOException, GedcomParserException {
+        long recordCount = 0;
+        for (AbstractElement record = records.next(); record != null; record = records.next()) {
+            recordCount++;
+            if (record instanceof Individual) {
+                readIndividual((Individual) record);
+            } else if (record instanceof Family) {
+                createNodes((Family) record);
+            }
+            sink.commitPoint();
+        }
+        LOG.info("Read {} records", recordCount);
+    }
+
+    /**
+     * Individuals are imported as members of families, like in the import of the full model. Those that do not
+     * link to a family themselves are only imported if a family refers to them anyway.
+     */
+    private void readIndividual(Individual individual) {
+        if (!individual.familiesWhereChild.isEmpty() || !individual.familiesWhereSpouse.isEmpty()) {
+            fetchOrCreateIndividual(individual);
+        }
+    }
+
+    /**
+     * @return the record of a member of the family, read through the index if it has no node yet, or the
+     * placeholder if the file does not define it
+     */
+    private Individual member(Family f, Individual placeholder) {
+        if (index == null || placeholder == null || persons.get(makeId(placeholder.xref)) != XrefNodeIdMap.NOT_FOUND) {
+            return placeholder;
+        }
+        AbstractElement record = index.read(placeholder.xref);
+        if (record instanceof Individual) {
+            return (Individual) record;
+        }
+        LOG.warn("Family {} refers to individual {}, which is not defined", makeId(f.xref), makeId(placeholder.xref));
+        return placeholder;
+    }
+
+    private void createRelationships() {
+        relationships.forEach(0, relationships.size(), (from, to, type, properties) -> {
+            sink.createRelationship(from, to, type, properties);
+            metrics.relationshipCreated(type);
+            relationshipsWritten++;
+            sink.commitPoint();
+        });
+        sink.flush();
+    }
+
+    /**
+     * Splits the families into a few work units per thread, so that workers finishing early can take over work.
+     * Units may share members, places and sources; whichever worker gets to a record first creates its node.
+     */
+    private List<List<Family>> partition(List<Family> familiesToImport) {
+        return Lists.partition(familiesToImport, Math.max(1, familiesToImport.size() / (threads * UNITS_PER_THREAD)));
+    }
+
+    /**
+     * Creating nodes takes no locks on existing nodes, so the workers of the node phase never contend for locks in
+     * the store. They only synchronize on the shared identity maps and the place trie. A worker only writes to the
+     * nodes it has created itself, and only records the relationships to those of other workers.
+     */
+    private List<RelationshipBuffer> createNodesInParallel(List<List<Family>> units, Supplier<UpdatableGraphSink> workerSinks)
+            throws InterruptedException {
+        LOG.info("Creating nodes for {} work units with {} threads", units.size(), threads);
+        Queue<List<Family>> queue = new ConcurrentLinkedQueue<>(units);
+        return runWorkers(() -> {
+            GedcomToNeo4J worker = forWorker(workerSinks.get());
+            try {
+                for (List<Family> unit = queue.poll(); unit != null; unit = queue.poll()) {
+                    worker.createNodes(unit);
+                }
+            } finally {
+                worker.sink.close();
+            }
+            return worker.relationships;
+        });
+    }
+
+    /**
+     * Writes the buffered relationships in batches of at most {@link #RELATIONSHIP_BATCH_SIZE}, which the workers
+     * take from a shared queue one at a time, so they stay busy until the last batch whatever buffer it comes from.
+     * Creating a relationship locks both of its nodes, so two batches that meet on a node can deadlock; the batch
+     * that loses is rolled back and written again.
+     */
+    private void createRelationshipsInParallel(List<RelationshipBuffer> buffers, Supplier<UpdatableGraphSink> workerSinks)
+            throws InterruptedException {
+        int size = Math.min(batchSize, RELATIONSHIP_BATCH_SIZE);
+        Queue<RelationshipBatch> queue = new ConcurrentLinkedQueue<>();
+        for (RelationshipBuffer buffer : buffers) {
+            for (int start = 0; start < buffer.size(); start += size) {
+                queue.add(new RelationshipBatch(buffer, start, Math.min(buffer.size(), start + size)));
+            }
+        }
+        LOG.info("Creating relationships in {} batches with {} threads", queue.size(), threads);
+        runWorkers(() -> {
+            try (UpdatableGraphSink workerSink = workerSinks.get()) {
+                for (RelationshipBatch batch = queue.poll(); batch != null; batch = queue.poll()) {
+                    batch.writeTo(workerSink, metrics);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs the task on every thread of a new pool and returns the results once all of them have finished.
+     */
+    private <T> List<T> runWorkers(Callable<T> task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("import-worker-%d").build());
+        try {
+            List<T> results = Lists.newArrayList();
+            for (Future<T> result : pool.invokeAll(Collections.nCopies(threads, task))) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return an importer for a worker thread, sharing this import's identity maps and place trie
+     */
+    private GedcomToNeo4J forWorker(UpdatableGraphSink workerSink) {
+        GedcomToNeo4J worker = new GedcomToNeo4J();
+        worker.batchSize = batchSize;
+        worker.storeWasEmpty = storeWasEmpty;
+        worker.persons = persons;
+        worker.families = families;
+        worker.sources = sources;
+        worker.placeTrie = placeTrie;
+        worker.nodeCount = nodeCount;
+        worker.metrics = metrics;
+        worker.useSink(workerSink);
+        worker.relationships = new RelationshipBuffer();
+        return worker;
+    }
+
+    private void createParentRelationship(long child, Individual childMember, Long parent, Individual parentMember,
+                                          RelationshipType relation, String familyRef) {
         if (parent != null) {
-            LOG.info("createParentRelationship(({})-[:{}]->({})): Family {}",
-                    new Object[]{child.getProperty("id"), relation.name(), parent.getProperty("id"), familyRef});
-            child.createRelationshipTo(parent, relation).setProperty("familie", familyRef);
+            if (LOG.isInfoEnabled(PARENT_RELATIONSHIP)) {
+                LOG.info("createParentRelationship(({})-[:{}]->({})): Family {}",
+                        new Object[]{makeId(childMember.xref), relation.name(), makeId(parentMember.xref), familyRef});
+            }
+            addRelationship(child, parent, relation, ImmutableMap.of("familie", familyRef));
         }
     }
 
-    private Node createFamilyRelationship(Node family, Individual member, RelationshipType relation) {
-        Node person = null;
+    private Long createFamilyRelationship(long family, Family f, Individual member, RelationshipType relation) {
+        Long person = null;
         if (member != null) {
-            LOG.info("createFamilyRelationship(({})-[:{}]->({}))", family.getProperty("id"), relation.name(), makeId(member.xref));
+            if (LOG.isInfoEnabled(FAMILY_RELATIONSHIP)) {
+                LOG.info("createFamilyRelationship(({})-[:{}]->({}))",
+                        new Object[]{makeId(f.xref), relation.name(), makeId(member.xref)});
+            }
             person = fetchOrCreateIndividual(member);
-            family.createRelationshipTo(person, relation);
+            createRelationship(family, person, relation);
         }
         return person;
     }
 
-    private Node createFamily(Family f) {
-        LOG.info("createFamily('{}')", makeId(f.xref));
-        Node family = graphDb.createNode(LBL_FAMILY);
-        family.setProperty("id", makeId(f.xref));
-        return family;
+    /**
+     * A family that already has a node in the identity map, as a changed family in a delta import does, keeps it.
+     */
+    private long createFamily(Family f) {
+        String id = makeId(f.xref);
+        LOG.info(RECORD, "createFamily('{}')", id);
+        synchronized (families) {
+            long family = families.get(id);
+            if (family == XrefNodeIdMap.NOT_FOUND) {
+                family = createNode(LBL_FAMILY, ImmutableMap.of("id", id));
+                families.put(id, family);
+                journalIdentity(LBL_FAMILY, id, family);
+            }
+            return family;
+        }
+    }
+
+    private long fetchOrCreateIndividual(Individual individual) {
+        String id = makeId(individual.xref);
+        LOG.info(RECORD, "fetchOrCreateIndividual('{}')", id);
+        return fetchOrCreateAndPopulate(LBL_PERSON, persons, id, individual, this::populateIndividual);
     }
 
-    private Node fetchOrCreateIndividual(Individual individual) {
-        LOG.info("fetchOrCreateIndividual('{}')", makeId(individual.xref));
-        return fetchOrCreateAndPopulate(LBL_PERSON, "id", makeId(individual.xref), individual, (node, from) -> {
-            node.setProperty("navn", mapToStringArray(individual.names, n -> n.basic.trim()));
+    private void populateIndividual(long node, Individual individual) {
+        sink.setNodeProperty(node, "navn", mapToStringArray(individual.names, n -> n.basic.trim()));
 
-            if (individual.sex != null) {
-                node.setProperty("kjonn", individual.sex.value);
-            }
-            addNotes(node, individual.notes);
-            addCitations(PersonRelasjoner.SITAT, individual.citations, node);
+        if (individual.sex != null) {
+            sink.setNodeProperty(node, "kjonn", individual.sex.value);
+        }
+        addNotes(node, individual.notes);
+        addCitations(PersonRelasjoner.SITAT, individual.citations, node);
 
-            individual.attributes.forEach(a -> node.createRelationshipTo(createEvent(a, a.type.tag), PersonRelasjoner.HENDELSE));
-            individual.events.forEach(e -> node.createRelationshipTo(createEvent(e, e.type.tag), PersonRelasjoner.HENDELSE));
-            individual.names.forEach(n -> addCitations(PersonRelasjoner.NAVNESITAT, n.citations, node));
-        });
+        String id = makeId(individual.xref);
+        Multiset<String> tags = HashMultiset.create();
+        individual.attributes.forEach(a -> createRelationship(node,
+                createEvent(a, a.type.tag, eventKey(id, a.type.tag, tags)), PersonRelasjoner.HENDELSE));
+        individual.events.forEach(e -> createRelationship(node,
+                createEvent(e, e.type.tag, eventKey(id, e.type.tag, tags)), PersonRelasjoner.HENDELSE));
+        individual.names.forEach(n -> addCitations(PersonRelasjoner.NAVNESITAT, n.citations, node));
     }
 
-    private void addNotes(Node individual, List<Note> notes) {
+    private void addNotes(long node, List<Note> notes) {
         if (!isEmpty(notes)) {
-            individual.setProperty("notater", mapToStringArray(notes, str -> Joiner.on(' ').join(str.lines)));
+            sink.setNodeProperty(node, "notater", mapNotes(resolveNotes(notes)));
         }
     }
 
-    private Node createEvent(Event e, String type) {
-        Node attributt = graphDb.createNode(LBL_HENDELSE);
-        attributt.setProperty("type", mapHendelseType(type));
+    /**
+     * Shared notes are placeholders in a streaming import, whose records are read through the index.
+     */
+    private List<Note> resolveNotes(List<Note> notes) {
+        if (index == null) {
+            return notes;
+        }
+        return notes.stream().map(n -> {
+            AbstractElement record = n.xref == null ? null : index.read(n.xref);
+            return record instanceof Note ? (Note) record : n;
+        }).collect(toList());
+    }
+
+    /**
+     * @param key identifies the event among all events, as the id of the record it belongs to, its tag and the
+     *            number of events with the same tag before it in the record
+     */
+    private long createEvent(Event e, String type, String key) {
+        Map<String, Object> properties = Maps.newHashMap();
+        properties.put("type", mapHendelseType(type));
+        properties.put("nokkel", key);
 
         if (e.date != null) {
-            attributt.setProperty("dato", e.date.value);
-        }
-        if (e.place != null) {
-            attributt.createRelationshipTo(fetchOrCreatePlace(e.place), HendelseRelasjoner.STED);
+            properties.put("dato", e.date.value);
         }
         if (e.description != null && e.description.value != null) {
-            attributt.setProperty("beskrivelse", e.description.value);
+            properties.put("beskrivelse", e.description.value);
+        }
+        Long existing = reusableEvents == null ? null : reusableEvents.remove(key);
+        long attributt;
+        if (existing != null) {
+            attributt = existing;
+            clearProperties(attributt, LBL_HENDELSE);
+            properties.forEach((property, value) -> sink.setNodeProperty(attributt, property, value));
+            store.deleteRelationships(attributt, HendelseRelasjoner.STED, null, null);
+            store.deleteRelationships(attributt, HendelseRelasjoner.SITAT, null, null);
+        } else {
+            attributt = createNode(LBL_HENDELSE, properties);
         }
         addNotes(attributt, e.notes);
+
+        if (e.place != null) {
+            createRelationship(attributt, fetchOrCreatePlace(e.place), HendelseRelasjoner.STED);
+        }
         addCitations(HendelseRelasjoner.SITAT, e.citations, attributt);
 
         return attributt;
     }
 
-    private void addCitations(RelationshipType type, List<AbstractCitation> citations, Node node) {
+    private void createFamilyEvents(long family, Family f) {
+        Multiset<String> tags = HashMultiset.create();
+        f.events.forEach(e -> createRelationship(family,
+                createEvent(e, e.type.tag, eventKey(makeId(f.xref), e.type.tag, tags)), FamilieRelasjoner.HENDELSE));
+    }
+
+    /**
+     * @param tags the tags of the events of the record so far, which the tag is added to
+     */
+    private static String eventKey(String recordId, String tag, Multiset<String> tags) {
+        String key = recordId + "/" + tag + "/" + tags.count(tag);
+        tags.add(tag);
+        return key;
+    }
+
+    private void addCitations(RelationshipType type, List<AbstractCitation> citations, long node) {
         if (citations != null) {
             citations.forEach(c -> createCitation(node, type, (CitationWithSource) c));
         }
     }
 
-    private Node fetchOrCreatePlace(Place place) {
-        LOG.info("fetchOrCreatePlace('{}')", place.placeName);
+    long fetchOrCreatePlace(Place place) {
+        LOG.info(RECORD, "fetchOrCreatePlace('{}')", place.placeName);
         return fetchOrCreatePlaceChain(Lists.newArrayList(Splitter.on(", ").split(place.placeName)));
     }
 
-    private Node fetchOrCreatePlaceChain(List<String> places) {
-        LOG.info("fetchOrCreatePlaceChain({})", places);
+    /**
+     * Resolves the place path from the outermost place inwards through the place trie, so only places that have
+     * not been seen before in this import reach the sink.
+     */
+    long fetchOrCreatePlaceChain(List<String> places) {
+        LOG.info(RECORD, "fetchOrCreatePlaceChain({})", places);
+        long started = System.nanoTime();
 
-        List<Node> candidates = Lists.newArrayList(graphDb.findNodesByLabelAndProperty(LBL_STED, "navn", places.get(0)));
-        LOG.trace("candidates: {}", candidates);
-        Node node = candidates.stream().filter(candidate -> {
-            List<Node> result = Lists.newArrayList(graphDb.traversalDescription()
-                    .relationships(StedRelasjoner.PLASSERING, Direction.OUTGOING)
-                    .traverse(candidate)
-                    .nodes());
+        synchronized (placeTrie) {
+            PlaceTrie.Entry entry = placeTrie.root();
+            long parent = XrefNodeIdMap.NOT_FOUND;
+            for (int index = places.size() - 1; index >= 0; index--) {
+                entry = entry.child(places.get(index));
+                if (entry.nodeId == XrefNodeIdMap.NOT_FOUND) {
+                    metrics.cacheMiss(LBL_STED.name());
+                    entry.nodeId = fetchOrCreatePlace(places.subList(index, places.size()), parent);
+                    if (checkpoint != null) {
+                        checkpoint.place(places.subList(index, places.size()), entry.nodeId);
+                    }
+                } else {
+                    metrics.cacheHit(LBL_STED.name());
+                }
+                parent = entry.nodeId;
+            }
+            metrics.recordLatency(ImportMetrics.PLACE_CHAIN, started);
+            return parent;
+        }
+    }
 
-            return result.stream().map(place -> place.getProperty("navn")).collect(toList()).equals(places);
-        }).findAny().orElse(null);
+    private long fetchOrCreatePlace(List<String> places, long parent) {
+        if (!storeWasEmpty) {
+            List<Long> candidates = Lists.newArrayList(store.findNodes(LBL_STED, "navn", places.get(0)));
+            LOG.trace("candidates: {}", candidates);
+            Long node = candidates.stream().filter(candidate -> placeChain(candidate).equals(places)).findAny().orElse(null);
+            if (node != null) {
+                LOG.debug("Found existing place '{}'", places);
+                return node;
+            }
+        }
 
-        if (node != null) {
-            LOG.debug("Found existing place '{}'", places);
-            return node;
-        } else {
-            LOG.debug("Creating new place '{}'", places.get(0));
+        LOG.debug("Creating new place '{}'", places.get(0));
+        long place = createNode(LBL_STED, ImmutableMap.of("navn", places.get(0)));
+        if (parent != XrefNodeIdMap.NOT_FOUND) {
+            createRelationship(place, parent, StedRelasjoner.PLASSERING);
+        }
+        return place;
+    }
 
-            Node place = graphDb.createNode(LBL_STED);
-            place.setProperty("navn", places.get(0));
-            if (places.size() > 1) {
-                place.createRelationshipTo(fetchOrCreatePlaceChain(places.subList(1, places.size())), StedRelasjoner.PLASSERING);
-            }
-            return place;
+    private List<Object> placeChain(long place) {
+        List<Object> names = Lists.newArrayList();
+        Long current = place;
+        while (current != null) {
+            names.add(sink.getNodeProperty(current, "navn"));
+            current = Iterables.getFirst(store.findRelated(current, StedRelasjoner.PLASSERING), null);
         }
+        return names;
     }
 
-    private void createCitation(Node on, RelationshipType r, CitationWithSource c) {
-        Node kilde = fetchOrCreateSource(c.source);
-        Relationship relasjon = on.createRelationshipTo(kilde, r);
+    private void createCitation(long on, RelationshipType r, CitationWithSource c) {
+        long kilde = fetchOrCreateSource(c.source);
+        Map<String, Object> properties = Maps.newHashMap();
 
         if (c.whereInSource != null) {
-            relasjon.setProperty("sitat", c.whereInSource.value);
+            properties.put("sitat", c.whereInSource.value);
         }
         if (c.certainty != null) {
-            relasjon.setProperty("kvalitet", c.certainty.value);
+            properties.put("kvalitet", c.certainty.value);
         }
+        addRelationship(on, kilde, r, properties);
     }
 
-    private Node fetchOrCreateSource(Source source) {
-        LOG.info("fetchOrCreateSource('{}')", makeId(source.xref));
-        return fetchOrCreateAndPopulate(LBL_KILDE, "id", makeId(source.xref), source, (node, from) -> {
-            node.setProperty("tittel", mapToStringArray(from.title));
-            if (!isEmpty(from.publicationFacts)) {
-                node.setProperty("publisering", mapToStringArray(from.publicationFacts));
+    private long fetchOrCreateSource(Source source) {
+        String id = makeId(source.xref);
+        LOG.info(RECORD, "fetchOrCreateSource('{}')", id);
+        return fetchOrCreateAndPopulate(LBL_KILDE, sources, id, source, (node, from) -> {
+            if (index == null) {
+                populateSource(node, from);
+                return;
             }
-            if (!isEmpty(from.originatorsAuthors)) {
-                node.setProperty("forfatter", mapToStringArray(from.originatorsAuthors));
+            // A citation in a streaming import only has a placeholder of the source
+            AbstractElement record = index.read(from.xref);
+            if (record instanceof Source) {
+                populateSource(node, (Source) record);
+            } else {
+                LOG.warn("Source {} is cited, but not defined", id);
+                populateSource(node, from);
             }
-            addNotes(node, from.notes);
         });
     }
 
-    private <T> Node fetchOrCreateAndPopulate(Label label, String keyName, String keyValue, T from, Populator<T> populator) {
-        LOG.info("fetchOrCreateAndPopulate('{}', '{}', '{}')", label.name(), keyName, keyValue);
-        ResourceIterable<Node> nodes = graphDb.findNodesByLabelAndProperty(label, keyName, keyValue);
-        Node node;
-        if (!Iterables.isEmpty(nodes)) {
-            LOG.debug("Found existing node '{}'", keyValue);
-            node = nodes.iterator().next();
-        } else {
-            LOG.debug("Creating new node '{}'", keyValue);
-            node = graphDb.createNode(label);
-            node.setProperty(keyName, keyValue);
+    private void populateSource(long node, Source from) {
+        sink.setNodeProperty(node, "tittel", mapToStringArray(from.title));
+        if (!isEmpty(from.publicationFacts)) {
+            sink.setNodeProperty(node, "publisering", mapToStringArray(from.publicationFacts));
+        }
+        if (!isEmpty(from.originatorsAuthors)) {
+            sink.setNodeProperty(node, "forfatter", mapToStringArray(from.originatorsAuthors));
+        }
+        addNotes(node, from.notes);
+    }
+
+    /**
+     * Looks the id up in the import's identity map first. The store is only asked when it held data before the
+     * import started, since otherwise every existing node was created by this run and is already in the map.
+     * <p>
+     * The node is claimed in the identity map before it is populated, outside the lock, so a node is only ever
+     * populated by the thread that created it.
+     */
+    private <T> long fetchOrCreateAndPopulate(Label label, XrefNodeIdMap identities, String id, T from, Populator<T> populator) {
+        LOG.info(RECORD, "fetchOrCreateAndPopulate('{}', '{}')", label.name(), id);
+        long started = System.nanoTime();
+        try {
+            long node;
+            synchronized (identities) {
+                node = identities.get(id);
+                if (node != XrefNodeIdMap.NOT_FOUND) {
+                    LOG.debug("Found node '{}' in identity map", id);
+                    metrics.cacheHit(label.name());
+                    return node;
+                }
+                metrics.cacheMiss(label.name());
+
+                Iterable<Long> nodes = storeWasEmpty ? ImmutableList.of() : store.findNodes(label, "id", id);
+                if (!Iterables.isEmpty(nodes)) {
+                    LOG.debug("Found existing node '{}'", id);
+                    node = nodes.iterator().next();
+                    identities.put(id, node);
+                    journalIdentity(label, id, node);
+                    return node;
+                }
+
+                LOG.debug("Creating new node '{}'", id);
+                node = createNode(label, ImmutableMap.of("id", id));
+                identities.put(id, node);
+                journalIdentity(label, id, node);
+            }
             populator.populate(node, from);
+            return node;
+        } finally {
+            metrics.recordLatency(ImportMetrics.FETCH_OR_CREATE, started);
+        }
+    }
+
+    private void journalIdentity(Label label, String id, long node) {
+        if (checkpoint != null) {
+            checkpoint.identity(label, id, node);
+        }
+    }
+
+    /**
+     * Removes the properties the mapping writes on nodes with the label, except for the id the node is found by.
+     */
+    private void clearProperties(long node, Label label) {
+        for (String property : NODE_PROPERTIES.get(label.name())) {
+            String key = property.contains(":") ? property.substring(0, property.indexOf(':')) : property;
+            if (!key.equals("id")) {
+                store.removeNodeProperty(node, key);
+            }
         }
-        return node;
     }
 
-    private void registerShutdownHook(final GraphDatabaseService graphDb) {
-        Runtime.getRuntime().addShutdownHook(new Thread() {
+    private long createNode(Label label, Map<String, Object> properties) {
+        nodeCount.incrementAndGet();
+        metrics.nodeCreated(label);
+        return sink.createNode(label, properties);
+    }
+
+    private void createRelationship(long from, long to, RelationshipType type) {
+        addRelationship(from, to, type, ImmutableMap.of());
+    }
+
+    private void addRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        if (relationships != null) {
+            relationships.add(from, to, type, properties);
+        } else {
+            sink.createRelationship(from, to, type, properties);
+            metrics.relationshipCreated(type);
+            relationshipsWritten++;
+        }
+    }
+
+    private Thread registerShutdownHook(final GraphDatabaseService graphDb) {
+        Thread hook = new Thread() {
             @Override
             public void run() {
                 graphDb.shutdown();
             }
-        });
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Shuts the database down when the import is done, so the store is closed for whoever uses it next in this JVM.
+     * If the JVM is already exiting, the hook shuts it down instead.
+     */
+    private static void shutdown(GraphDatabaseService graphDb, Thread shutdownHook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            return;
+        }
+        graphDb.shutdown();
     }
 
-    private static String[] mapToStringArray(List<String> list) {
+    static String[] mapToStringArray(List<String> list) {
         return mapToStringArray(list, str -> str);
     }
 
-    private static String makeId(String xref) {
+    private static String[] mapNotes(List<Note> notes) {
+        return mapToStringArray(notes, str -> Joiner.on(' ').join(str.lines));
+    }
+
+    static String makeId(String xref) {
         return xref.replaceAll("@", "");
     }
 
-    private static <T> String[] mapToStringArray(List<T> list, Function<T, String> mappingFunction) {
+    private static Marker recordMarker(String name) {
+        Marker marker = MarkerFactory.getDetachedMarker(name);
+        marker.add(RECORD);
+        return marker;
+    }
+
+    static <T> String[] mapToStringArray(List<T> list, Function<T, String> mappingFunction) {
         String[] result = new String[list.size()];
 
         List<String> mappedList = list.stream().map(mappingFunction).collect(toList());
@@ -262,7 +1379,7 @@ public class GedcomToNeo4J {
         return result;
     }
 
-    private static String mapHendelseType (String type){
+    static String mapHendelseType (String type){
         String mappedType = HENDELSE_TYPE_MAPPING.get(type);
         return mappedType != null ? mappedType : type;
     }
@@ -283,8 +1400,55 @@ public class GedcomToNeo4J {
         PLASSERING
     }
 
+    private static class RelationshipBatch {
+
+        private static final int MAX_ATTEMPTS = 50;
+
+        private final RelationshipBuffer buffer;
+        private final int from;
+        private final int to;
+
+        RelationshipBatch(RelationshipBuffer buffer, int from, int to) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        void writeTo(UpdatableGraphSink target, ImportMetrics metrics) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    buffer.forEach(from, to, target::createRelationship);
+                    target.flush();
+                    buffer.forEach(from, to, (start, end, type, properties) -> metrics.relationshipCreated(type));
+                    return;
+                } catch (DeadlockDetectedException e) {
+                    target.discard();
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Deadlock writing relationships {} to {}, attempt {}", new Object[]{from, to, attempt});
+                    }
+                    // Randomized, so the transactions that collided do not simply collide again
+                    Uninterruptibles.sleepUninterruptibly(ThreadLocalRandom.current().nextInt(10 * attempt), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * The nodes of a delta import whose records have been removed from the file, and the ids of the others by whether
+     * their records have changed.
+     */
+    private static class RecordChanges {
+
+        private final List<Long> removed = Lists.newArrayList();
+        private final Set<String> changed = Sets.newHashSet();
+        private final Set<String> unchanged = Sets.newHashSet();
+    }
+
     @FunctionalInterface
     private static interface Populator<S> {
-        void populate(Node to, S from);
+        void populate(long to, S from);
     }
 }
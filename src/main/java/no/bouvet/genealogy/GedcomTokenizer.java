@@ -0,0 +1,469 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a GEDCOM file into lines of level, xref, tag and value. The file is memory-mapped, and the parts of the
+ * current line are kept as offsets into the mapping, so reading a line copies nothing. Tags are compared in place,
+ * and Strings are only built for the xrefs and values a caller asks for.
+ * <p>
+ * A single mapping holds at most 2 GB, so the file is mapped in windows of {@value #WINDOW_BITS} bits, and offsets are
+ * longs that pick the window and the position in it. Lines may cross from one window into the next.
+ * <p>
+ * UTF-16 is recognized by its byte order mark or by the zero byte next to the leading {@code 0} of the header, and
+ * read through a char view of the mapping. Any other file is tokenized as single bytes, which are only decoded when a
+ * value is built, using the byte order mark of UTF-8 or the CHAR line of the header. Offsets count chars or bytes
+ * accordingly.
+ */
+class GedcomTokenizer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GedcomTokenizer.class);
+
+    /**
+     * The character sets GEDCOM files are read in. ANSI is taken to mean Windows-1252.
+     */
+    enum Encoding {
+        UTF_16LE, UTF_16BE, UTF_8, WINDOWS_1252, ANSEL
+    }
+
+    private static final char[] WINDOWS_1252 = Charset.forName("windows-1252")
+            .decode(ByteBuffer.wrap(allBytes())).array();
+
+    /**
+     * The size of the windows the file is mapped in, as a power of two
+     */
+    static final int WINDOW_BITS = 30;
+
+    private final RandomAccessFile file;
+    private final int windowBits;
+    private final long windowMask;
+    private final MappedByteBuffer[] bytes;
+    private final CharBuffer[] chars;
+    private final long length;
+    private final Encoding encoding;
+
+    private long position;
+    private boolean pushedBack;
+
+    // The current line
+    private long lineStart;
+    private long lineEnd;
+    private int level;
+    private long xrefStart;
+    private long xrefEnd;
+    private long tagStart;
+    private long tagEnd;
+    private long valueStart;
+    private long valueEnd;
+
+    // Reused for building values
+    private byte[] byteScratch = new byte[256];
+    private char[] charScratch = new char[256];
+
+    GedcomTokenizer(String gedcomFilename) throws IOException {
+        this(gedcomFilename, WINDOW_BITS);
+    }
+
+    /**
+     * @param windowBits the size of the windows the file is mapped in, as a power of two
+     */
+    GedcomTokenizer(String gedcomFilename, int windowBits) throws IOException {
+        Preconditions.checkArgument(windowBits >= 1 && windowBits <= WINDOW_BITS,
+                "Windows must be between 2 bytes and 1 GB, not 2^%s bytes", windowBits);
+        this.windowBits = windowBits;
+        windowMask = (1L << windowBits) - 1;
+        file = new RandomAccessFile(gedcomFilename, "r");
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+        bytes = new MappedByteBuffer[(int) ((size + windowMask) >>> windowBits)];
+        for (int window = 0; window < bytes.length; window++) {
+            long start = (long) window << windowBits;
+            bytes[window] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, windowMask + 1));
+        }
+
+        int first = size > 0 ? bytes[0].get(0) & 0xFF : -1;
+        int second = size > 1 ? bytes[0].get(1) & 0xFF : -1;
+        int third = size > 2 ? bytes[0].get(2) & 0xFF : -1;
+        boolean utf8ByteOrderMark = first == 0xEF && second == 0xBB && third == 0xBF;
+        if ((first == 0xFF && second == 0xFE) || (first == '0' && second == 0)) {
+            chars = charViews(ByteOrder.LITTLE_ENDIAN);
+            encoding = Encoding.UTF_16LE;
+        } else if ((first == 0xFE && second == 0xFF) || (first == 0 && second == '0')) {
+            chars = charViews(ByteOrder.BIG_ENDIAN);
+            encoding = Encoding.UTF_16BE;
+        } else {
+            chars = null;
+            encoding = utf8ByteOrderMark ? Encoding.UTF_8 : headerEncoding(bytes[0]);
+        }
+        length = chars != null ? size / 2 : size;
+
+        if (chars != null && length > 0 && unit(0) == '\uFEFF') {
+            position = 1;
+        } else if (chars == null && utf8ByteOrderMark) {
+            position = 3;
+        }
+        LOG.info("Reading '{}' as {}", gedcomFilename, encoding);
+    }
+
+    private GedcomTokenizer(GedcomTokenizer whole, long start, long end) {
+        file = null;
+        windowBits = whole.windowBits;
+        windowMask = whole.windowMask;
+        bytes = whole.bytes;
+        chars = whole.chars;
+        encoding = whole.encoding;
+        length = end;
+        position = start;
+    }
+
+    private CharBuffer[] charViews(ByteOrder order) {
+        CharBuffer[] views = new CharBuffer[bytes.length];
+        for (int window = 0; window < views.length; window++) {
+            views[window] = bytes[window].duplicate().order(order).asCharBuffer();
+        }
+        return views;
+    }
+
+    /**
+     * @return a tokenizer of its own for the lines between the given offsets, sharing this one's mapping. Slices can
+     * be read concurrently, and closing them has no effect.
+     */
+    GedcomTokenizer slice(long start, long end) {
+        return new GedcomTokenizer(this, start, end);
+    }
+
+    /**
+     * @return the offset of the next line to read, which is the current one after {@link #pushBack()}
+     */
+    long position() {
+        return pushedBack ? lineStart : position;
+    }
+
+    /**
+     * @return the offset of the end of the text
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return how many bytes of the file make up one unit of the offsets
+     */
+    int bytesPerUnit() {
+        return chars != null ? 2 : 1;
+    }
+
+    /**
+     * @return the offset of the first level-0 line after the line at the given offset, or {@link #length()} if
+     * there is none
+     */
+    long nextRecordStart(long offset) {
+        long index = offset;
+        while (index < length && !isLineBreak(unit(index))) {
+            index++;
+        }
+        while (index < length) {
+            while (index < length && isLineBreak(unit(index))) {
+                index++;
+            }
+            long start = index;
+            while (index < length && (unit(index) == ' ' || unit(index) == '\t')) {
+                index++;
+            }
+            if (index + 1 < length && unit(index) == '0' && unit(index + 1) == ' ') {
+                return start;
+            }
+            while (index < length && !isLineBreak(unit(index))) {
+                index++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Moves to the next non-blank line.
+     *
+     * @return false at the end of the file
+     */
+    boolean next() {
+        if (pushedBack) {
+            pushedBack = false;
+            return true;
+        }
+        while (position < length) {
+            long end = position;
+            while (end < length && !isLineBreak(unit(end))) {
+                end++;
+            }
+            boolean parsed = parse(position, end);
+            position = end;
+            while (position < length && isLineBreak(unit(position))) {
+                position++;
+            }
+            if (parsed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes the next call to {@link #next()} stay on the current line.
+     */
+    void pushBack() {
+        pushedBack = true;
+    }
+
+    /**
+     * @return the offset of the current line in the file, in chars for UTF-16 files and in bytes otherwise
+     */
+    long lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * @return the decoded text of the current line
+     */
+    String line() {
+        return text(lineStart, lineEnd);
+    }
+
+    int level() {
+        return level;
+    }
+
+    boolean hasXref() {
+        return xrefEnd > xrefStart;
+    }
+
+    String xref() {
+        return hasXref() ? text(xrefStart, xrefEnd) : null;
+    }
+
+    boolean tagIs(String tag) {
+        return regionMatches(tagStart, tagEnd, tag);
+    }
+
+    /**
+     * @return true if the line has a value, without building it
+     */
+    boolean hasValue() {
+        return valueStart >= 0;
+    }
+
+    /**
+     * @return the value after the tag, or null if the line has none
+     */
+    String value() {
+        return valueStart < 0 ? null : text(valueStart, valueEnd);
+    }
+
+    /**
+     * @return true if the value is a pointer to another record, like {@code @S1@}
+     */
+    boolean valueIsPointer() {
+        return valueStart >= 0 && valueEnd - valueStart > 2 && unit(valueStart) == '@' && unit(valueEnd - 1) == '@';
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Splits a line the way gedcom4j does: leading whitespace is skipped, and the value is everything after the single
+     * space that follows the tag, trailing whitespace included.
+     *
+     * @return false for a blank line or one that does not start with a level
+     */
+    private boolean parse(long start, long end) {
+        long index = start;
+        while (index < end && (unit(index) == ' ' || unit(index) == '\t')) {
+            index++;
+        }
+        if (index == end || !isDigit(unit(index))) {
+            return false;
+        }
+        lineStart = start;
+        lineEnd = end;
+        level = 0;
+        while (index < end && isDigit(unit(index))) {
+            level = level * 10 + unit(index++) - '0';
+        }
+        index = skipSpace(index, end);
+
+        xrefStart = xrefEnd = index;
+        if (index < end && unit(index) == '@') {
+            while (index < end && unit(index) != ' ') {
+                index++;
+            }
+            xrefEnd = index;
+            index = skipSpace(index, end);
+        }
+
+        tagStart = index;
+        while (index < end && unit(index) != ' ') {
+            index++;
+        }
+        tagEnd = index;
+
+        if (index < end) {
+            valueStart = index + 1;
+            valueEnd = end;
+        } else {
+            valueStart = valueEnd = -1;
+        }
+        return true;
+    }
+
+    /**
+     * @return the encoding named by the CHAR line of the header, or UTF-8 if it names none that is known
+     */
+    private static Encoding headerEncoding(ByteBuffer bytes) {
+        String name = null;
+        for (int start = 0; start < bytes.limit() && name == null; ) {
+            int end = start;
+            while (end < bytes.limit() && bytes.get(end) != '\n' && bytes.get(end) != '\r') {
+                end++;
+            }
+            byte[] line = new byte[end - start];
+            for (int index = 0; index < line.length; index++) {
+                line[index] = bytes.get(start + index);
+            }
+            String text = new String(line, Charsets.US_ASCII).trim();
+            if (text.startsWith("0 ") && start > 0) {
+                break;
+            }
+            if (text.startsWith("1 CHAR")) {
+                name = text.substring("1 CHAR".length()).trim().toUpperCase();
+            }
+            start = end + 1;
+        }
+
+        if (name == null) {
+            LOG.warn("The header names no character set, reading as UTF-8");
+            return Encoding.UTF_8;
+        }
+        switch (name) {
+            case "UTF-8":
+            case "ASCII":
+                return Encoding.UTF_8;
+            case "ANSI":
+            case "WINDOWS-1252":
+            case "CP1252":
+                return Encoding.WINDOWS_1252;
+            case "ANSEL":
+                return Encoding.ANSEL;
+            default:
+                LOG.warn("Unknown character set '{}' in the header, reading as UTF-8", name);
+                return Encoding.UTF_8;
+        }
+    }
+
+    private long skipSpace(long index, long end) {
+        return index < end && unit(index) == ' ' ? index + 1 : index;
+    }
+
+    private char unit(long index) {
+        if (chars != null) {
+            long offset = index << 1;
+            return chars[(int) (offset >>> windowBits)].get((int) (offset & windowMask) >>> 1);
+        }
+        return (char) (bytes[(int) (index >>> windowBits)].get((int) (index & windowMask)) & 0xFF);
+    }
+
+    private boolean regionMatches(long start, long end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int index = 0; index < text.length(); index++) {
+            if (unit(start + index) != text.charAt(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the decoded text between the given offsets
+     */
+    String text(long start, long end) {
+        int size = Ints.checkedCast(end - start);
+        if (chars != null) {
+            if (charScratch.length < size) {
+                charScratch = new char[Math.max(size, charScratch.length * 2)];
+            }
+            for (int index = 0; index < size; index++) {
+                charScratch[index] = unit(start + index);
+            }
+            return new String(charScratch, 0, size);
+        }
+        if (byteScratch.length < size) {
+            byteScratch = new byte[Math.max(size, byteScratch.length * 2)];
+            charScratch = new char[byteScratch.length];
+        }
+        for (int index = 0; index < size; index++) {
+            byteScratch[index] = (byte) unit(start + index);
+        }
+        switch (encoding) {
+            case WINDOWS_1252:
+                for (int index = 0; index < size; index++) {
+                    charScratch[index] = WINDOWS_1252[byteScratch[index] & 0xFF];
+                }
+                return new String(charScratch, 0, size);
+            case ANSEL:
+                return AnselDecoder.decode(byteScratch, size, charScratch);
+            default:
+                return new String(byteScratch, 0, size, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return a 64-bit hash of the text between the given offsets. Line breaks are left out, so the hash does not
+     * change with the line endings of the file.
+     */
+    long hash(long start, long end) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (long index = start; index < end; index++) {
+            char unit = unit(index);
+            if (!isLineBreak(unit)) {
+                hasher.putChar(unit);
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static byte[] allBytes() {
+        byte[] all = new byte[256];
+        for (int b = 0; b < all.length; b++) {
+            all[b] = (byte) b;
+        }
+        return all;
+    }
+
+    private static boolean isLineBreak(char unit) {
+        return unit == '\n' || unit == '\r';
+    }
+
+    private static boolean isDigit(char unit) {
+        return unit >= '0' && unit <= '9';
+    }
+}
@@ -0,0 +1,79 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a GEDCOM file as UTF-8, whatever character set it is written in, so that
+ * {@link org.gedcom4j.parser.GedcomParser} reads every file the way {@link GedcomTokenizer} does. gedcom4j reads ANSI
+ * as ASCII, decodes ANSEL differently and relies on the CHAR line of the header, which is often wrong. The lines are
+ * decoded by the tokenizer and encoded again in chunks, and the CHAR line of the header is replaced by one that
+ * says UTF-8.
+ */
+class GedcomTranscodingStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final GedcomTokenizer tokens;
+    private final StringBuilder text = new StringBuilder(CHUNK_SIZE + 256);
+
+    private boolean inHeader = true;
+    private boolean started;
+    private byte[] chunk = new byte[0];
+    private int index;
+
+    GedcomTranscodingStream(GedcomTokenizer tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public int read() {
+        return fill() ? chunk[index++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, chunk.length - index);
+        System.arraycopy(chunk, index, buffer, offset, count);
+        index += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        tokens.close();
+    }
+
+    /**
+     * @return false once the whole file has been read
+     */
+    private boolean fill() {
+        if (index < chunk.length) {
+            return true;
+        }
+        text.setLength(0);
+        while (text.length() < CHUNK_SIZE && tokens.next()) {
+            if (tokens.level() == 0 && started) {
+                inHeader = false;
+            }
+            started = true;
+            if (inHeader && tokens.level() == 1 && tokens.tagIs("CHAR")) {
+                text.append("1 CHAR UTF-8");
+            } else {
+                text.append(tokens.line());
+            }
+            text.append('\n');
+        }
+        chunk = text.toString().getBytes(Charsets.UTF_8);
+        index = 0;
+        return chunk.length > 0;
+    }
+}
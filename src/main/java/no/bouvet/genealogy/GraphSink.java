@@ -0,0 +1,45 @@
+package no.bouvet.genealogy;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Map;
+
+/**
+ * Target for the node and relationship writes produced by {@link GedcomToNeo4J}. Nodes and relationships are
+ * addressed by their store ids, so the same mapping code can write through the transactional API or directly to
+ * the store files.
+ * <p>
+ * A sink of this type only builds a new graph. Sinks that can also look up, change and delete what a store holds
+ * already implement {@link UpdatableGraphSink}.
+ */
+interface GraphSink extends AutoCloseable {
+
+    /**
+     * Creates the uniqueness constraints and indexes that the fetch-or-create lookups rely on, unless they already
+     * exist. Pending writes are flushed first.
+     */
+    void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys);
+
+    long createNode(Label label, Map<String, Object> properties);
+
+    void setNodeProperty(long node, String key, Object value);
+
+    Object getNodeProperty(long node, String key);
+
+    long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties);
+
+    /**
+     * Marks the end of a self-contained unit of work, such as a family with its members. Sinks that batch their
+     * writes may commit here.
+     */
+    void commitPoint();
+
+    /**
+     * Makes all writes so far durable. Writes that are not flushed before {@link #close()} may be discarded.
+     */
+    void flush();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,301 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Imports generated GEDCOM files of increasing size and reports how the import scales with the size of the file, so
+ * an import that grows faster than linearly shows up before it meets a production file.
+ * <p>
+ * Every size gets a file of its own from {@link GedcomGenerator}, kept in the working directory for later runs, and is
+ * imported into a new store there. The report has one tab-separated line per size with the wall time, the peak heap
+ * and the time spent collecting garbage during the import, the size of the store on disk, and the nodes and
+ * relationships written in total and per second. Imports run one after another in this JVM, so the peak heap is the
+ * sum of the peaks of the heap pools, measured from a collected heap, and the smallest size is imported once before
+ * the measurements so the first one does not pay for warming up the JVM.
+ * <p>
+ * Compared against a report saved from an earlier run, a size that takes more time, heap or disk than the baseline
+ * allows is a regression.
+ */
+class ImportBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportBenchmark.class);
+
+    static final String REPORT = "report.tsv";
+
+    private static final List<String> COLUMNS = Lists.newArrayList("individuals", "wallMillis", "peakHeapBytes",
+            "gcMillis", "storeBytes", "nodes", "relationships", "nodesPerSecond", "relationshipsPerSecond");
+
+    // How much worse than the baseline a size may do before it counts as a regression
+    private static final double TIME_TOLERANCE = 1.2;
+    private static final double HEAP_TOLERANCE = 1.2;
+    private static final double STORE_TOLERANCE = 1.1;
+    // Growth of the wall time with the size, as the exponent of a power law, above which the log warns
+    private static final double SUPERLINEAR = 1.3;
+
+    private final File directory;
+    private final long seed;
+    private final Target target;
+    private final Supplier<GedcomToNeo4J> importers;
+
+    /**
+     * @param importers makes the importer for every size, configured the way the import should be measured
+     */
+    ImportBenchmark(File directory, long seed, Target target, Supplier<GedcomToNeo4J> importers) {
+        this.directory = directory;
+        this.seed = seed;
+        this.target = target;
+        this.importers = importers;
+    }
+
+    /**
+     * Measures the import at every size, writes the report to the working directory and compares it with the baseline
+     * if there is one.
+     *
+     * @return false if any size regressed against the baseline
+     */
+    boolean run(List<Integer> sizes, File baseline) throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        LOG.info("Warming up with {} individuals", Collections.min(sizes));
+        measure(Collections.min(sizes));
+
+        List<Result> results = Lists.newArrayList();
+        for (int individuals : sizes) {
+            Result result = measure(individuals);
+            LOG.info("Imported {} individuals in {} ms: {} nodes/s, {} relationships/s, peak heap {} MB, GC {} ms, "
+                    + "store {} MB", new Object[]{individuals, result.wallMillis, result.nodesPerSecond(),
+                    result.relationshipsPerSecond(), result.peakHeapBytes >> 20, result.gcMillis,
+                    result.storeBytes >> 20});
+            if (!results.isEmpty()) {
+                logGrowth(results.get(results.size() - 1), result);
+            }
+            results.add(result);
+        }
+
+        File report = new File(directory, REPORT);
+        write(results, report);
+        LOG.info("Wrote the report to '{}'", report);
+        return baseline == null || compare(results, read(baseline));
+    }
+
+    private Result measure(int individuals) throws Exception {
+        File gedcom = new File(directory, "synthetic-" + individuals + "-" + seed + ".ged");
+        if (!gedcom.exists()) {
+            new GedcomGenerator(seed).write(individuals, gedcom.getPath());
+        }
+        File store = new File(directory, "store-" + individuals);
+        deleteRecursively(store.toPath());
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = Lists.newArrayList();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcMillis = collectionMillis();
+
+        GedcomToNeo4J importer = importers.get();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        switch (target) {
+            case BATCH:
+                importer.loadBatch(gedcom.getPath(), store.getPath());
+                break;
+            case MEMORY:
+                importer.loadInMemory(gedcom.getPath());
+                break;
+            default:
+                importer.load(gedcom.getPath(), store.getPath());
+        }
+        stopwatch.stop();
+
+        Result result = new Result();
+        result.individuals = individuals;
+        result.wallMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        result.gcMillis = collectionMillis() - gcMillis;
+        for (MemoryPoolMXBean pool : heapPools) {
+            result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        result.nodes = importer.metrics().getNodesCreated().values().stream().mapToLong(Long::longValue).sum();
+        result.relationships = importer.metrics().getRelationshipsCreated().values().stream()
+                .mapToLong(Long::longValue).sum();
+        if (store.exists()) {
+            try (Stream<Path> files = Files.walk(store.toPath())) {
+                result.storeBytes = files.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+            }
+        }
+        deleteRecursively(store.toPath());
+        return result;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Warns when the wall time grows faster with the size than the import should, which is linearly.
+     */
+    private static void logGrowth(Result smaller, Result larger) {
+        double exponent = Math.log((double) Math.max(1, larger.wallMillis) / Math.max(1, smaller.wallMillis))
+                / Math.log((double) larger.individuals / smaller.individuals);
+        if (exponent > SUPERLINEAR) {
+            LOG.warn("From {} to {} individuals the wall time grows like size^{}", new Object[]{smaller.individuals,
+                    larger.individuals, String.format("%.2f", exponent)});
+        } else {
+            LOG.info("From {} to {} individuals the wall time grows like size^{}", new Object[]{smaller.individuals,
+                    larger.individuals, String.format("%.2f", exponent)});
+        }
+    }
+
+    /**
+     * @return false if any size that is in both reports regressed
+     */
+    static boolean compare(List<Result> results, List<Result> baseline) {
+        boolean passed = true;
+        for (Result result : results) {
+            Result base = baseline.stream().filter(b -> b.individuals == result.individuals).findFirst().orElse(null);
+            if (base == null) {
+                LOG.info("{} individuals: not in the baseline", result.individuals);
+                continue;
+            }
+            List<String> regressions = Lists.newArrayList();
+            check(regressions, "wall time", result.wallMillis, base.wallMillis, TIME_TOLERANCE);
+            check(regressions, "peak heap", result.peakHeapBytes, base.peakHeapBytes, HEAP_TOLERANCE);
+            check(regressions, "store size", result.storeBytes, base.storeBytes, STORE_TOLERANCE);
+            String ratios = String.format("wall time x%.2f, peak heap x%.2f, GC time x%.2f, store size x%.2f",
+                    ratio(result.wallMillis, base.wallMillis), ratio(result.peakHeapBytes, base.peakHeapBytes),
+                    ratio(result.gcMillis, base.gcMillis), ratio(result.storeBytes, base.storeBytes));
+            if (regressions.isEmpty()) {
+                LOG.info("{} individuals against the baseline: {}", result.individuals, ratios);
+            } else {
+                LOG.warn("{} individuals regressed in {}: {}", new Object[]{result.individuals,
+                        Joiner.on(", ").join(regressions), ratios});
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private static void check(List<String> regressions, String name, long value, long baseline, double tolerance) {
+        if (value > baseline * tolerance) {
+            regressions.add(name);
+        }
+    }
+
+    private static double ratio(long value, long baseline) {
+        return baseline == 0 ? Double.NaN : (double) value / baseline;
+    }
+
+    static void write(List<Result> results, File report) throws IOException {
+        StringBuilder text = new StringBuilder(Joiner.on('\t').join(COLUMNS)).append('\n');
+        for (Result result : results) {
+            text.append(Joiner.on('\t').join(result.individuals, result.wallMillis, result.peakHeapBytes,
+                    result.gcMillis, result.storeBytes, result.nodes, result.relationships, result.nodesPerSecond(),
+                    result.relationshipsPerSecond())).append('\n');
+        }
+        Files.write(report.toPath(), text.toString().getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Reads a report by the names of its columns, so reports with columns added later can still be read.
+     */
+    static List<Result> read(File report) throws IOException {
+        List<String> lines = Files.readAllLines(report.toPath(), Charsets.UTF_8);
+        List<String> header = Splitter.on('\t').splitToList(lines.get(0));
+        List<Result> results = Lists.newArrayList();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> values = Splitter.on('\t').splitToList(line);
+            Result result = new Result();
+            result.individuals = Integer.parseInt(values.get(header.indexOf("individuals")));
+            result.wallMillis = Long.parseLong(values.get(header.indexOf("wallMillis")));
+            result.peakHeapBytes = Long.parseLong(values.get(header.indexOf("peakHeapBytes")));
+            result.gcMillis = Long.parseLong(values.get(header.indexOf("gcMillis")));
+            result.storeBytes = Long.parseLong(values.get(header.indexOf("storeBytes")));
+            result.nodes = Long.parseLong(values.get(header.indexOf("nodes")));
+            result.relationships = Long.parseLong(values.get(header.indexOf("relationships")));
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Where the measured imports write the graph.
+     */
+    enum Target {
+        /**
+         * {@link GedcomToNeo4J#load}
+         */
+        EMBEDDED,
+        /**
+         * {@link GedcomToNeo4J#loadBatch}
+         */
+        BATCH,
+        /**
+         * {@link GedcomToNeo4J#loadInMemory}, which measures the mapping without the writes to Neo4j
+         */
+        MEMORY
+    }
+
+    /**
+     * The measurements of the import of one size.
+     */
+    static class Result {
+
+        int individuals;
+        long wallMillis;
+        long peakHeapBytes;
+        long gcMillis;
+        long storeBytes;
+        long nodes;
+        long relationships;
+
+        long nodesPerSecond() {
+            return nodes * 1000 / Math.max(1, wallMillis);
+        }
+
+        long relationshipsPerSecond() {
+            return relationships * 1000 / Math.max(1, wallMillis);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
+import org.neo4j.graphdb.Label;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of a streaming import, from which an import that was interrupted can be resumed. Before every commit, the
+ * identities and places recorded since the previous one are appended to the file as a block, together with the position of the next record to read, and the block is forced to disk. The sequence number
+ * of the block is stored in the store in the same transaction, so when resuming, the blocks up to the last committed
+ * one are exactly those whose nodes are in the store.
+ * <p>
+ * The journal belongs to one version of the GEDCOM file, and is only used as long as its size and modification time
+ * match those it was written for.
+ */
+class ImportCheckpoint implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportCheckpoint.class);
+
+    static final String SUFFIX = ".checkpoint";
+
+    private static final int MAGIC = 0x47444350;
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 25;
+
+    private static final byte BLOCK = 'B';
+    private static final byte END = 'E';
+    private static final byte IDENTITY = 1;
+    private static final byte PLACE = 2;
+
+    private final File file;
+    private final boolean storeWasEmpty;
+
+    // The state recorded by the committed blocks
+    private final Map<String, XrefNodeIdMap> identities = Maps.newHashMap();
+    private final PlaceTrie placeTrie = new PlaceTrie();
+    private long sequence;
+    private long position = -1;
+
+    // Recorded since the last block
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+    private FileOutputStream out;
+
+    private ImportCheckpoint(File file, boolean storeWasEmpty) {
+        this.file = file;
+        this.storeWasEmpty = storeWasEmpty;
+    }
+
+    /**
+     * Starts the journal of a new import.
+     */
+    static ImportCheckpoint create(File file, String gedcomFilename, boolean storeWasEmpty) throws IOException {
+        ImportCheckpoint checkpoint = new ImportCheckpoint(file, storeWasEmpty);
+        File gedcom = new File(gedcomFilename);
+        try (DataOutputStream header = new DataOutputStream(new FileOutputStream(file))) {
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(gedcom.length());
+            header.writeLong(gedcom.lastModified());
+            header.writeBoolean(storeWasEmpty);
+        }
+        checkpoint.out = new FileOutputStream(file, true);
+        return checkpoint;
+    }
+
+    /**
+     * Reads the journal of an interrupted import up to the block with the given sequence number, which is the last
+     * one whose transaction was committed, and drops the blocks after it.
+     */
+    static ImportCheckpoint resume(File file, String gedcomFilename, long committedSequence) throws IOException {
+        File gedcom = new File(gedcomFilename);
+        ImportCheckpoint checkpoint;
+        long committedLength;
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+             DataInputStream in = new DataInputStream(counting)) {
+            Preconditions.checkState(in.readInt() == MAGIC && in.readInt() == VERSION, "'%s' is not an import checkpoint", file);
+            Preconditions.checkState(in.readLong() == gedcom.length() && in.readLong() == gedcom.lastModified(),
+                    "'%s' has changed since the import that is to be resumed was started", gedcomFilename);
+            checkpoint = new ImportCheckpoint(file, in.readBoolean());
+            committedLength = counting.getCount();
+            while (checkpoint.sequence < committedSequence) {
+                checkpoint.readBlock(in);
+                committedLength = counting.getCount();
+            }
+        }
+        try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+            truncate.setLength(committedLength);
+        }
+        checkpoint.out = new FileOutputStream(file, true);
+        LOG.info("Resuming from checkpoint {} in '{}': {} records and {} places",
+                new Object[]{checkpoint.sequence, file, checkpoint.identities.values().stream().mapToInt(XrefNodeIdMap::size).sum(),
+                        checkpoint.placeTrie.size()});
+        return checkpoint;
+    }
+
+    /**
+     * @return true if the journal holds any blocks, which it does once the import has started to commit
+     */
+    static boolean hasBlocks(File file) {
+        return file.length() > HEADER_LENGTH;
+    }
+
+    boolean storeWasEmpty() {
+        return storeWasEmpty;
+    }
+
+    /**
+     * @return the identity map of the nodes with the label
+     */
+    XrefNodeIdMap identities(Label label) {
+        return identities.computeIfAbsent(label.name(), name -> new XrefNodeIdMap());
+    }
+
+    PlaceTrie placeTrie() {
+        return placeTrie;
+    }
+
+    /**
+     * @return the offset of the next record to read, or -1 if no records have been read
+     */
+    long position() {
+        return position;
+    }
+
+    void identity(Label label, String id, long node) {
+        try {
+            pendingOut.writeByte(IDENTITY);
+            writeString(pendingOut, label.name());
+            writeString(pendingOut, id);
+            pendingOut.writeLong(node);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @param places the path of the place, innermost first
+     */
+    void place(List<String> places, long node) {
+        try {
+            pendingOut.writeByte(PLACE);
+            pendingOut.writeInt(places.size());
+            for (String place : places) {
+                writeString(pendingOut, place);
+            }
+            pendingOut.writeLong(node);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Appends what has been recorded since the last block and forces it to disk.
+     *
+     * @param position the offset of the next record to read
+     * @return the sequence number of the block, to be committed with the transaction it belongs to
+     */
+    long write(long position) throws IOException {
+        sequence++;
+        ByteArrayOutputStream block = new ByteArrayOutputStream(pending.size() + 32);
+        DataOutputStream blockOut = new DataOutputStream(block);
+        blockOut.writeByte(BLOCK);
+        blockOut.writeLong(sequence);
+        blockOut.writeLong(position);
+        pending.writeTo(blockOut);
+        blockOut.writeByte(END);
+        pending.reset();
+
+        block.writeTo(out);
+        out.getChannel().force(false);
+        return sequence;
+    }
+
+    /**
+     * Deletes the journal once the import has finished.
+     */
+    void delete() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("Could not delete checkpoint " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void readBlock(DataInputStream in) throws IOException {
+        Preconditions.checkState(in.readByte() == BLOCK, "Checkpoint '%s' is corrupt", file);
+        sequence = in.readLong();
+        position = in.readLong();
+        for (byte item = in.readByte(); item != END; item = in.readByte()) {
+            switch (item) {
+                case IDENTITY:
+                    String label = readString(in);
+                    identities.computeIfAbsent(label, name -> new XrefNodeIdMap()).put(readString(in), in.readLong());
+                    break;
+                case PLACE:
+                    String[] places = new String[in.readInt()];
+                    for (int index = 0; index < places.length; index++) {
+                        places[index] = readString(in);
+                    }
+                    PlaceTrie.Entry entry = placeTrie.root();
+                    for (int index = places.length - 1; index >= 0; index--) {
+                        entry = entry.child(places[index]);
+                    }
+                    entry.nodeId = in.readLong();
+                    break;
+                default:
+                    throw new IllegalStateException("Checkpoint '" + file + "' is corrupt");
+            }
+        }
+    }
+
+    /**
+     * Strings are written with their length as an int, since places are not limited to what
+     * {@link DataOutput#writeUTF} allows.
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
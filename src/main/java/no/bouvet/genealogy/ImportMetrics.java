@@ -0,0 +1,269 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Maps;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one import, which the workers of a parallel import share. Counters are
+ * {@link LongAdder}s and histograms are arrays of atomic buckets, so recording never takes a lock.
+ * <p>
+ * While the import runs, the metrics are published over JMX as {@value #OBJECT_NAME}.
+ */
+class ImportMetrics implements ImportMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportMetrics.class);
+
+    static final String OBJECT_NAME = "no.bouvet.genealogy:type=ImportMetrics";
+
+    static final String PLACE_CHAIN = "fetchOrCreatePlaceChain";
+    static final String FETCH_OR_CREATE = "fetchOrCreateAndPopulate";
+    static final String COMMIT = "commit";
+
+    private final ConcurrentMap<String, LongAdder> nodes = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, LongAdder> relationships = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, LongAdder> hits = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, LongAdder> misses = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, LatencyHistogram> latencies = Maps.newConcurrentMap();
+
+    private ObjectName registeredAs;
+
+    void nodeCreated(Label label) {
+        increment(nodes, label.name());
+    }
+
+    void relationshipCreated(RelationshipType type) {
+        increment(relationships, type.name());
+    }
+
+    void cacheHit(String cache) {
+        increment(hits, cache);
+    }
+
+    void cacheMiss(String cache) {
+        increment(misses, cache);
+    }
+
+    /**
+     * @param startNanos the {@link System#nanoTime()} the operation started at
+     */
+    void recordLatency(String operation, long startNanos) {
+        latencies.computeIfAbsent(operation, name -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Publishes the metrics over JMX, in place of those of an earlier import in the same JVM.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            LOG.warn("Could not publish import metrics over JMX", e);
+        }
+    }
+
+    void unregister() {
+        if (registeredAs == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        } catch (JMException e) {
+            LOG.warn("Could not unpublish import metrics", e);
+        }
+        registeredAs = null;
+    }
+
+    @Override
+    public Map<String, Long> getNodesCreated() {
+        return snapshot(nodes);
+    }
+
+    @Override
+    public Map<String, Long> getRelationshipsCreated() {
+        return snapshot(relationships);
+    }
+
+    @Override
+    public Map<String, Long> getCacheHits() {
+        return snapshot(hits);
+    }
+
+    @Override
+    public Map<String, Long> getCacheMisses() {
+        return snapshot(misses);
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        SortedMap<String, Long> statistics = Maps.newTreeMap();
+        latencies.forEach((operation, histogram) -> histogram.statistics()
+                .forEach((statistic, value) -> statistics.put(operation + "." + statistic, value)));
+        return statistics;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder json = new StringBuilder("{");
+        appendCounters(json.append("\"nodes\":"), getNodesCreated());
+        appendCounters(json.append(",\"relationships\":"), getRelationshipsCreated());
+
+        json.append(",\"caches\":{");
+        SortedMap<String, Long> allHits = snapshot(hits);
+        SortedMap<String, Long> allMisses = snapshot(misses);
+        SortedMap<String, Long> caches = Maps.newTreeMap();
+        caches.putAll(allHits);
+        caches.putAll(allMisses);
+        String separator = "";
+        for (String cache : caches.keySet()) {
+            Map<String, Long> counts = Maps.newLinkedHashMap();
+            counts.put("hits", allHits.getOrDefault(cache, 0L));
+            counts.put("misses", allMisses.getOrDefault(cache, 0L));
+            appendCounters(json.append(separator).append(quote(cache)).append(':'), counts);
+            separator = ",";
+        }
+
+        json.append("},\"latencies\":{");
+        separator = "";
+        for (Map.Entry<String, LatencyHistogram> operation : new TreeMap<>(latencies).entrySet()) {
+            appendCounters(json.append(separator).append(quote(operation.getKey())).append(':'),
+                    operation.getValue().statistics());
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, name -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private static SortedMap<String, Long> snapshot(Map<String, LongAdder> counters) {
+        SortedMap<String, Long> values = Maps.newTreeMap();
+        counters.forEach((key, counter) -> values.put(key, counter.sum()));
+        return values;
+    }
+
+    private static void appendCounters(StringBuilder json, Map<String, Long> counters) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            json.append(separator).append(quote(counter.getKey())).append(':').append(counter.getValue());
+            separator = ",";
+        }
+        json.append('}');
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Histogram of durations in nanoseconds with eight buckets per power of two, so percentiles are accurate to
+     * within an eighth of their value.
+     */
+    static class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long duration = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(duration));
+            count.increment();
+            total.add(duration);
+            max.accumulate(duration);
+        }
+
+        /**
+         * @return the count, and the mean, median, 99th percentile and maximum in microseconds
+         */
+        Map<String, Long> statistics() {
+            long recorded = count.sum();
+            Map<String, Long> statistics = Maps.newLinkedHashMap();
+            statistics.put("count", recorded);
+            statistics.put("meanMicros", recorded == 0 ? 0 : total.sum() / recorded / 1000);
+            statistics.put("p50Micros", percentile(0.5) / 1000);
+            statistics.put("p99Micros", percentile(0.99) / 1000);
+            statistics.put("maxMicros", max.get() / 1000);
+            return statistics;
+        }
+
+        /**
+         * @return the upper bound of the bucket the percentile falls in, in nanoseconds
+         */
+        long percentile(double fraction) {
+            long[] counts = new long[buckets.length()];
+            long recorded = 0;
+            for (int index = 0; index < counts.length; index++) {
+                counts[index] = buckets.get(index);
+                recorded += counts[index];
+            }
+            long rank = (long) Math.ceil(fraction * recorded);
+            long seen = 0;
+            for (int index = 0; index < counts.length; index++) {
+                seen += counts[index];
+                if (seen >= rank && counts[index] > 0) {
+                    return Math.min(upperBound(index), max.get());
+                }
+            }
+            return 0;
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package no.bouvet.genealogy;
+
+import java.util.Map;
+
+/**
+ * The metrics of the running import, as published over JMX by {@link ImportMetrics}.
+ */
+public interface ImportMetricsMXBean {
+
+    /**
+     * @return the number of nodes created, by label
+     */
+    Map<String, Long> getNodesCreated();
+
+    /**
+     * @return the number of relationships created, by type
+     */
+    Map<String, Long> getRelationshipsCreated();
+
+    /**
+     * @return the number of lookups answered by the import's own caches, by cache
+     */
+    Map<String, Long> getCacheHits();
+
+    /**
+     * @return the number of lookups the import's own caches could not answer, by cache
+     */
+    Map<String, Long> getCacheMisses();
+
+    /**
+     * @return the count, mean, median, 99th percentile and maximum of each timed operation, in microseconds, by
+     * operation and statistic, like {@code commit.p99Micros}
+     */
+    Map<String, Long> getLatencies();
+
+    /**
+     * @return all of the metrics as a JSON document
+     */
+    String getSummary();
+}
@@ -0,0 +1,390 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.gedcom4j.model.AbstractElement;
+import org.gedcom4j.model.Note;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs a streaming import as three stages connected by bounded queues: the parse stage reads records from the file,
+ * the transform stage maps them to graph writes, and the write stage applies those to the sink. Each stage runs on
+ * a thread of its own, and a stage that gets ahead blocks on its full output queue until the next one catches up.
+ * <p>
+ * The queue depths and the throughput of each stage are logged while the import runs, together with how long each
+ * stage has waited on its queues. The stage the others wait for is the bottleneck.
+ */
+class ImportPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+
+    static final int RECORD_QUEUE_CAPACITY = 1000;
+    static final int COMMAND_QUEUE_CAPACITY = 10000;
+
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    private static final AbstractElement END_OF_RECORDS = new Note();
+    private static final Runnable END_OF_COMMANDS = () -> {
+    };
+
+    /**
+     * The part of the import that runs on the transform stage. It reads the records from the parse stage and writes
+     * through a sink that hands its writes on to the write stage. That sink is an {@link UpdatableGraphSink} if the
+     * target is one.
+     */
+    @FunctionalInterface
+    interface Transform {
+        void run(RecordSource records, GraphSink sink) throws Exception;
+    }
+
+    private final BlockingQueue<AbstractElement> records = new ArrayBlockingQueue<>(RECORD_QUEUE_CAPACITY);
+    private final BlockingQueue<Runnable> commands = new ArrayBlockingQueue<>(COMMAND_QUEUE_CAPACITY);
+
+    private final Stage parse = new Stage("parse", "records");
+    private final Stage transform = new Stage("transform", "records");
+    private final Stage write = new Stage("write", "writes");
+
+    private final Stopwatch elapsed = Stopwatch.createUnstarted();
+
+    /**
+     * Runs the parse and transform stages on threads of their own and the write stage on the calling thread, which
+     * therefore is the only thread that uses the target sink. Returns when every write has been applied.
+     */
+    void run(RecordSource source, GraphSink target, Transform transformation) throws Exception {
+        ExecutorService stages = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("import-pipeline-%d").build());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("import-pipeline-report").setDaemon(true).build());
+        elapsed.start();
+        try (NodeIds nodeIds = new NodeIds()) {
+            CommandSink<?> sink = target instanceof UpdatableGraphSink
+                    ? new UpdatableCommandSink((UpdatableGraphSink) target, nodeIds) : new CommandSink<>(target, nodeIds);
+            Future<?> parsing = stages.submit(() -> {
+                try {
+                    for (AbstractElement record = source.next(); record != null; record = source.next()) {
+                        parse.put(records, record);
+                        parse.processed.incrementAndGet();
+                    }
+                } finally {
+                    parse.put(records, END_OF_RECORDS);
+                }
+                return null;
+            });
+            Future<?> transforming = stages.submit(() -> {
+                try {
+                    transformation.run(this::takeRecord, sink);
+                } finally {
+                    transform.put(commands, END_OF_COMMANDS);
+                }
+                return null;
+            });
+            reporter.scheduleAtFixedRate(() -> report("running"), REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+
+            for (Runnable command = write.take(commands); command != END_OF_COMMANDS; command = write.take(commands)) {
+                command.run();
+                write.processed.incrementAndGet();
+            }
+            transforming.get();
+            parsing.get();
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            stages.shutdownNow();
+            reporter.shutdownNow();
+            elapsed.stop();
+            report("finished");
+        }
+    }
+
+    private AbstractElement takeRecord() {
+        AbstractElement record;
+        try {
+            record = transform.take(records);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a record", e);
+        }
+        if (record == END_OF_RECORDS) {
+            return null;
+        }
+        transform.processed.incrementAndGet();
+        return record;
+    }
+
+    private void report(String state) {
+        double seconds = Math.max(elapsed.elapsed(TimeUnit.MILLISECONDS), 1) / 1000.0;
+        LOG.info("Pipeline {} after {}: {}, {} queued, {}, {} queued, {}", new Object[]{state, elapsed,
+                parse.describe(seconds), records.size(), transform.describe(seconds), commands.size(),
+                write.describe(seconds)});
+    }
+
+    /**
+     * Counts the items a stage has processed and the time it has spent blocked on its input and output queues.
+     */
+    private static class Stage {
+
+        private final String name;
+        private final String unit;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong starvedNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        Stage(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            if (!queue.offer(item)) {
+                long start = System.nanoTime();
+                queue.put(item);
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            T item = queue.poll();
+            if (item == null) {
+                long start = System.nanoTime();
+                item = queue.take();
+                starvedNanos.addAndGet(System.nanoTime() - start);
+            }
+            return item;
+        }
+
+        String describe(double seconds) {
+            return String.format("%s %d %s (%.0f/s, waited %d ms for input, %d ms for output)", name,
+                    processed.get(), unit, processed.get() / seconds,
+                    TimeUnit.NANOSECONDS.toMillis(starvedNanos.get()), TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+        }
+    }
+
+    /**
+     * The sink of the transform stage. Writes are queued for the write stage, which applies them to the target sink.
+     * Nodes get provisional ids from a counter here, which the write stage translates to the ids the target assigns.
+     * Ids found by lookups in the target are passed back encoded as negative numbers below
+     * {@link XrefNodeIdMap#NOT_FOUND}. Lookups wait for all writes queued before them.
+     */
+    private class CommandSink<S extends GraphSink> implements GraphSink {
+
+        final S target;
+
+        // Only used on the transform stage
+        private long nextNode;
+
+        // Only used on the write stage
+        private final NodeIds nodeIds;
+
+        CommandSink(S target, NodeIds nodeIds) {
+            this.target = target;
+            this.nodeIds = nodeIds;
+        }
+
+        @Override
+        public void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys) {
+            queue(() -> target.createSchema(uniqueKeys, indexedKeys));
+        }
+
+        @Override
+        public long createNode(Label label, Map<String, Object> properties) {
+            long node = nextNode++;
+            queue(() -> nodeIds.put(node, target.createNode(label, properties)));
+            return node;
+        }
+
+        @Override
+        public void setNodeProperty(long node, String key, Object value) {
+            queue(() -> target.setNodeProperty(resolve(node), key, value));
+        }
+
+        @Override
+        public Object getNodeProperty(long node, String key) {
+            return query(sink -> sink.getNodeProperty(resolve(node), key));
+        }
+
+        /**
+         * @return {@link XrefNodeIdMap#NOT_FOUND}, since the relationship is only created once the write stage gets to
+         * it
+         */
+        @Override
+        public long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+            queue(() -> target.createRelationship(resolve(from), resolve(to), type, properties));
+            return XrefNodeIdMap.NOT_FOUND;
+        }
+
+        @Override
+        public void commitPoint() {
+            queue(target::commitPoint);
+        }
+
+        @Override
+        public void flush() {
+            queue(target::flush);
+        }
+
+        @Override
+        public void close() {
+            // The target is closed by whoever opened it, once the write stage has finished
+        }
+
+        void queue(Runnable command) {
+            try {
+                transform.put(commands, command);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing a write", e);
+            }
+        }
+
+        <T> T query(Function<S, T> lookup) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            queue(() -> {
+                try {
+                    result.complete(lookup.apply(target));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    throw e;
+                }
+            });
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a lookup", e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        long resolve(long node) {
+            return node >= 0 ? nodeIds.get(node) : -node - 2;
+        }
+
+        Iterable<Long> encode(Iterable<Long> storeIds) {
+            ImmutableList.Builder<Long> nodes = ImmutableList.builder();
+            storeIds.forEach(storeId -> nodes.add(-storeId - 2));
+            return nodes.build();
+        }
+    }
+
+    /**
+     * The sink of the transform stage for a target that can look up and delete nodes. Deletes are queued like the
+     * writes, and lookups wait for them like for the writes.
+     */
+    private class UpdatableCommandSink extends CommandSink<UpdatableGraphSink> implements UpdatableGraphSink {
+
+        UpdatableCommandSink(UpdatableGraphSink target, NodeIds nodeIds) {
+            super(target, nodeIds);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return query(UpdatableGraphSink::isEmpty);
+        }
+
+        @Override
+        public void removeNodeProperty(long node, String key) {
+            queue(() -> target.removeNodeProperty(resolve(node), key));
+        }
+
+        @Override
+        public void deleteNode(long node) {
+            queue(() -> target.deleteNode(resolve(node)));
+        }
+
+        @Override
+        public Iterable<Long> findNodes(Label label, String key, Object value) {
+            return query(sink -> encode(sink.findNodes(label, key, value)));
+        }
+
+        @Override
+        public Iterable<Long> findNodes(Label label) {
+            return query(sink -> encode(sink.findNodes(label)));
+        }
+
+        @Override
+        public Iterable<Long> findRelated(long node, RelationshipType type) {
+            return query(sink -> encode(sink.findRelated(resolve(node), type)));
+        }
+
+        @Override
+        public void deleteRelationships(long node, RelationshipType type, String key, Object value) {
+            queue(() -> target.deleteRelationships(resolve(node), type, key, value));
+        }
+
+        /**
+         * Discards the writes queued since the last {@link #flush()}, once the write stage has applied them.
+         */
+        @Override
+        public void discard() {
+            queue(target::discard);
+        }
+    }
+
+    /**
+     * The store ids of the nodes by their provisional ids. They are kept in a temporary file that is mapped a chunk at
+     * a time as the ids grow, so the table takes no heap however many nodes the import creates, and the operating
+     * system keeps only the pages in use in memory. The file is deleted when the table is closed.
+     */
+    private static class NodeIds implements Closeable {
+
+        private static final int CHUNK_BITS = 20;
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+        private final FileChannel file;
+        private LongBuffer[] chunks = new LongBuffer[16];
+
+        NodeIds() throws IOException {
+            file = FileChannel.open(Files.createTempFile("import-pipeline", ".ids"), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        void put(long node, long storeId) {
+            chunk(node).put((int) (node & CHUNK_MASK), storeId);
+        }
+
+        long get(long node) {
+            return chunk(node).get((int) (node & CHUNK_MASK));
+        }
+
+        private LongBuffer chunk(long node) {
+            int chunk = (int) (node >>> CHUNK_BITS);
+            if (chunk >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, chunk + 1));
+            }
+            if (chunks[chunk] == null) {
+                try {
+                    chunks[chunk] = file.map(FileChannel.MapMode.READ_WRITE, (long) chunk << (CHUNK_BITS + 3),
+                            Long.BYTES << CHUNK_BITS).asLongBuffer();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return chunks[chunk];
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
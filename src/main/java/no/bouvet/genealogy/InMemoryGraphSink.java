@@ -0,0 +1,180 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the graph in memory instead of writing it to a store, so an import through this sink measures the mapping
+ * alone, without the cost of Neo4j. The graph is laid out like the store files: nodes, relationships and properties
+ * are records in parallel primitive arrays that point at each other by index, with the outgoing relationships and the
+ * properties of a node as linked lists, and labels, types and property keys are interned as ints. A node then costs
+ * three array slots, a relationship five and a property three, one of them its value.
+ * <p>
+ * Like the batch inserter, the sink only builds a new graph: the importer resolves everything it has written from its
+ * own identity maps and place trie, so the sink has no indexes and cannot look up or delete what it holds.
+ */
+class InMemoryGraphSink implements GraphSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryGraphSink.class);
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Labels, relationship types and property keys, by the ints that stand for them in the records
+    private final List<String> names = Lists.newArrayList();
+    private final Map<String, Integer> nameIds = Maps.newHashMap();
+
+    private int nodeCount;
+    private int[] nodeLabel = new int[INITIAL_CAPACITY];
+    private int[] nodeFirstProperty = new int[INITIAL_CAPACITY];
+    private int[] nodeFirstRelationship = new int[INITIAL_CAPACITY];
+
+    private int relationshipCount;
+    private int[] relationshipType = new int[INITIAL_CAPACITY];
+    private int[] relationshipStart = new int[INITIAL_CAPACITY];
+    private int[] relationshipEnd = new int[INITIAL_CAPACITY];
+    private int[] relationshipNext = new int[INITIAL_CAPACITY];
+    private int[] relationshipFirstProperty = new int[INITIAL_CAPACITY];
+
+    private int propertyCount;
+    private int[] propertyKey = new int[INITIAL_CAPACITY];
+    private Object[] propertyValue = new Object[INITIAL_CAPACITY];
+    private int[] propertyNext = new int[INITIAL_CAPACITY];
+
+    /**
+     * Nothing is looked up, so there is no schema to create.
+     */
+    @Override
+    public void createSchema(Map<Label, String> uniqueKeys, Map<Label, String> indexedKeys) {
+    }
+
+    @Override
+    public long createNode(Label label, Map<String, Object> properties) {
+        if (nodeCount == nodeLabel.length) {
+            int capacity = nodeCount << 1;
+            nodeLabel = Arrays.copyOf(nodeLabel, capacity);
+            nodeFirstProperty = Arrays.copyOf(nodeFirstProperty, capacity);
+            nodeFirstRelationship = Arrays.copyOf(nodeFirstRelationship, capacity);
+        }
+        int node = nodeCount++;
+        nodeLabel[node] = nameId(label.name());
+        nodeFirstProperty[node] = createProperties(properties);
+        nodeFirstRelationship[node] = NONE;
+        return node;
+    }
+
+    @Override
+    public void setNodeProperty(long node, String key, Object value) {
+        int keyId = nameId(key);
+        for (int property = nodeFirstProperty[index(node)]; property != NONE; property = propertyNext[property]) {
+            if (propertyKey[property] == keyId) {
+                propertyValue[property] = value;
+                return;
+            }
+        }
+        int property = createProperty(keyId, value);
+        propertyNext[property] = nodeFirstProperty[(int) node];
+        nodeFirstProperty[(int) node] = property;
+    }
+
+    @Override
+    public Object getNodeProperty(long node, String key) {
+        Integer keyId = nameIds.get(key);
+        if (keyId == null) {
+            return null;
+        }
+        for (int property = nodeFirstProperty[index(node)]; property != NONE; property = propertyNext[property]) {
+            if (propertyKey[property] == keyId) {
+                return propertyValue[property];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        int start = index(from);
+        index(to);
+        if (relationshipCount == relationshipType.length) {
+            int capacity = relationshipCount << 1;
+            relationshipType = Arrays.copyOf(relationshipType, capacity);
+            relationshipStart = Arrays.copyOf(relationshipStart, capacity);
+            relationshipEnd = Arrays.copyOf(relationshipEnd, capacity);
+            relationshipNext = Arrays.copyOf(relationshipNext, capacity);
+            relationshipFirstProperty = Arrays.copyOf(relationshipFirstProperty, capacity);
+        }
+        int relationship = relationshipCount++;
+        relationshipType[relationship] = nameId(type.name());
+        relationshipStart[relationship] = start;
+        relationshipEnd[relationship] = (int) to;
+        relationshipNext[relationship] = nodeFirstRelationship[start];
+        relationshipFirstProperty[relationship] = createProperties(properties);
+        nodeFirstRelationship[start] = relationship;
+        return relationship;
+    }
+
+    @Override
+    public void commitPoint() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        LOG.info("Held {} nodes, {} relationships and {} properties in memory", new Object[]{nodeCount, relationshipCount,
+                propertyCount});
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int index(long node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IllegalArgumentException("No node " + node);
+        }
+        return (int) node;
+    }
+
+    /**
+     * @return the first property record of the list, or {@link #NONE} if there are no properties
+     */
+    private int createProperties(Map<String, Object> properties) {
+        int first = NONE;
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            int property = createProperty(nameId(entry.getKey()), entry.getValue());
+            propertyNext[property] = first;
+            first = property;
+        }
+        return first;
+    }
+
+    private int createProperty(int keyId, Object value) {
+        if (propertyCount == propertyKey.length) {
+            int capacity = propertyCount << 1;
+            propertyKey = Arrays.copyOf(propertyKey, capacity);
+            propertyValue = Arrays.copyOf(propertyValue, capacity);
+            propertyNext = Arrays.copyOf(propertyNext, capacity);
+        }
+        int property = propertyCount++;
+        propertyKey[property] = keyId;
+        propertyValue[property] = value;
+        return property;
+    }
+}
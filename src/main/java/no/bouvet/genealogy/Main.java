@@ -1,8 +1,99 @@
 package no.bouvet.genealogy;
 
+import ch.qos.logback.classic.LoggerContext;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Supplier;
+
 public class Main {
 
     public static void main(String... args) throws Exception {
-        new GedcomToNeo4J().load("src/main/resources/min-slekt.ged", "neo4j-test");
+        List<String> arguments = Lists.newArrayList(args);
+        boolean batch = arguments.remove("--batch");
+        boolean csv = arguments.remove("--csv");
+        boolean inMemory = arguments.remove("--in-memory");
+        boolean pipelined = arguments.remove("--pipeline");
+        boolean resume = arguments.remove("--resume");
+        boolean streaming = arguments.remove("--stream") || pipelined || resume;
+        boolean parallelParsing = arguments.remove("--parallel-parse");
+        boolean delta = arguments.remove("--delta");
+        boolean upsert = arguments.remove("--upsert");
+        int batchSize = intOption(arguments, "--batch-size=", GedcomToNeo4J.DEFAULT_BATCH_SIZE);
+        int threads = intOption(arguments, "--threads=", 1);
+        String record = stringOption(arguments, "--record=", null);
+        int generate = intOption(arguments, "--generate=", 0);
+        long seed = Long.parseLong(stringOption(arguments, "--seed=", "1"));
+        String benchmark = stringOption(arguments, "--benchmark=", null);
+        String baseline = stringOption(arguments, "--baseline=", null);
+
+        String gedcomFilename = arguments.size() > 0 ? arguments.get(0) : "src/main/resources/min-slekt.ged";
+        String databaseName = arguments.size() > 1 ? arguments.get(1) : "neo4j-test";
+
+        if (generate > 0) {
+            Preconditions.checkArgument(!arguments.isEmpty(), "--generate needs the name of the file to write");
+            new GedcomGenerator(seed).write(generate, gedcomFilename);
+            return;
+        }
+
+        if (record != null) {
+            try (GedcomIndex index = GedcomIndex.open(gedcomFilename)) {
+                String text = index.text(record);
+                System.out.print(text != null ? text : "No record " + record + " in " + gedcomFilename + "\n");
+            }
+            return;
+        }
+
+        Supplier<GedcomToNeo4J> importers = () -> new GedcomToNeo4J().withBatchSize(batchSize).withThreads(threads)
+                .withStreaming(streaming).withPipeline(pipelined).withParallelParsing(parallelParsing).withDelta(delta).withUpsert(upsert).withResume(resume);
+        boolean regressed = false;
+        try {
+            if (benchmark != null) {
+                List<Integer> sizes = Lists.newArrayList();
+                Splitter.on(',').trimResults().split(benchmark).forEach(size -> sizes.add(Integer.parseInt(size)));
+                File directory = new File(arguments.size() > 0 ? arguments.get(0) : "benchmark");
+                ImportBenchmark.Target target = batch ? ImportBenchmark.Target.BATCH
+                        : inMemory ? ImportBenchmark.Target.MEMORY : ImportBenchmark.Target.EMBEDDED;
+                regressed = !new ImportBenchmark(directory, seed, target, importers)
+                        .run(sizes, baseline != null ? new File(baseline) : null);
+            } else if (csv) {
+                importers.get().exportCsv(gedcomFilename, databaseName);
+            } else if (inMemory) {
+                importers.get().loadInMemory(gedcomFilename);
+            } else if (batch) {
+                importers.get().loadBatch(gedcomFilename, databaseName);
+            } else {
+                importers.get().load(gedcomFilename, databaseName);
+            }
+        } finally {
+            // Lets an asynchronous appender write what it still has queued
+            ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+            if (loggerFactory instanceof LoggerContext) {
+                ((LoggerContext) loggerFactory).stop();
+            }
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    private static int intOption(List<String> arguments, String prefix, int defaultValue) {
+        String value = stringOption(arguments, prefix, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static String stringOption(List<String> arguments, String prefix, String defaultValue) {
+        for (String argument : arguments) {
+            if (argument.startsWith(prefix)) {
+                arguments.remove(argument);
+                return argument.substring(prefix.length());
+            }
+        }
+        return defaultValue;
     }
 }
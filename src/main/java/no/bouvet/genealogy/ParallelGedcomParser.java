@@ -0,0 +1,160 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import org.gedcom4j.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses a GEDCOM file into the complete {@link Gedcom} model on the common fork-join pool, as a replacement for
+ * {@link org.gedcom4j.parser.GedcomParser#load(String)}. Records are independent of each other once the file is split
+ * at its level-0 lines, so the file is split in halves at those lines until the parts are small enough, and every
+ * part is read by a {@link GedcomRecordReader} of its own.
+ * <p>
+ * The records of all parts are then collected into the model in file order, and the references between them, which
+ * the readers leave as placeholders, are resolved to the records they point to.
+ */
+class ParallelGedcomParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelGedcomParser.class);
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final AtomicInteger chunks = new AtomicInteger();
+
+    Gedcom parse(String gedcomFilename) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<AbstractElement> records;
+        try (GedcomTokenizer tokens = new GedcomTokenizer(gedcomFilename)) {
+            records = ForkJoinPool.commonPool().invoke(new ParseTask(tokens, tokens.position(), tokens.length()));
+        }
+        Gedcom gedcom = link(records);
+        LOG.info("Parsed {} records in {} chunks with parallelism {} in {}", new Object[]{records.size(), chunks,
+                ForkJoinPool.commonPool().getParallelism(), stopwatch.stop()});
+        return gedcom;
+    }
+
+    private Gedcom link(List<AbstractElement> records) {
+        Gedcom gedcom = new Gedcom();
+        for (AbstractElement record : records) {
+            if (record instanceof Individual) {
+                gedcom.individuals.put(((Individual) record).xref, (Individual) record);
+            } else if (record instanceof Family) {
+                gedcom.families.put(((Family) record).xref, (Family) record);
+            } else if (record instanceof Source) {
+                gedcom.sources.put(((Source) record).xref, (Source) record);
+            } else if (record instanceof Note) {
+                gedcom.notes.put(((Note) record).xref, (Note) record);
+            }
+        }
+
+        for (Individual individual : Lists.newArrayList(gedcom.individuals.values())) {
+            individual.familiesWhereChild.forEach(child -> child.family = family(gedcom, child.family));
+            individual.familiesWhereSpouse.forEach(spouse -> spouse.family = family(gedcom, spouse.family));
+            linkNotes(gedcom, individual.notes);
+            linkCitations(gedcom, individual.citations);
+            individual.names.forEach(name -> linkCitations(gedcom, name.citations));
+            individual.events.forEach(event -> linkEvent(gedcom, event));
+            individual.attributes.forEach(attribute -> linkEvent(gedcom, attribute));
+        }
+        for (Family family : Lists.newArrayList(gedcom.families.values())) {
+            if (family.wife != null) {
+                family.wife = individual(gedcom, family.wife);
+            }
+            if (family.husband != null) {
+                family.husband = individual(gedcom, family.husband);
+            }
+            family.children.replaceAll(child -> individual(gedcom, child));
+            family.events.forEach(event -> linkEvent(gedcom, event));
+        }
+        for (Source source : Lists.newArrayList(gedcom.sources.values())) {
+            linkNotes(gedcom, source.notes);
+        }
+        return gedcom;
+    }
+
+    private void linkEvent(Gedcom gedcom, Event event) {
+        linkNotes(gedcom, event.notes);
+        linkCitations(gedcom, event.citations);
+    }
+
+    private void linkNotes(Gedcom gedcom, List<Note> notes) {
+        notes.replaceAll(note -> note.xref == null ? note : resolve(gedcom.notes, note.xref, note));
+    }
+
+    private void linkCitations(Gedcom gedcom, List<AbstractCitation> citations) {
+        citations.forEach(citation -> {
+            if (citation instanceof CitationWithSource) {
+                CitationWithSource withSource = (CitationWithSource) citation;
+                withSource.source = resolve(gedcom.sources, withSource.source.xref, withSource.source);
+            }
+        });
+    }
+
+    private static Individual individual(Gedcom gedcom, Individual placeholder) {
+        return resolve(gedcom.individuals, placeholder.xref, placeholder);
+    }
+
+    private static Family family(Gedcom gedcom, Family placeholder) {
+        return resolve(gedcom.families, placeholder.xref, placeholder);
+    }
+
+    /**
+     * References to records that are not defined keep their placeholder, which is added to the model like
+     * GedcomParser does.
+     */
+    private static <T> T resolve(Map<String, T> records, String xref, T placeholder) {
+        T record = records.get(xref);
+        if (record == null) {
+            LOG.warn("Reference to undefined record {}", xref);
+            records.put(xref, placeholder);
+            record = placeholder;
+        }
+        return record;
+    }
+
+    private class ParseTask extends RecursiveTask<List<AbstractElement>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final GedcomTokenizer tokens;
+        private final long start;
+        private final long end;
+
+        ParseTask(GedcomTokenizer tokens, long start, long end) {
+            this.tokens = tokens;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<AbstractElement> compute() {
+            if (end - start > CHUNK_SIZE) {
+                long middle = tokens.nextRecordStart(start + (end - start) / 2);
+                if (middle < end) {
+                    ParseTask second = new ParseTask(tokens, middle, end);
+                    second.fork();
+                    List<AbstractElement> records = new ParseTask(tokens, start, middle).compute();
+                    records.addAll(second.join());
+                    return records;
+                }
+            }
+
+            chunks.incrementAndGet();
+            List<AbstractElement> records = Lists.newArrayList();
+            GedcomRecordReader reader = new GedcomRecordReader(tokens.slice(start, end), true);
+            for (AbstractElement record = reader.next(); record != null; record = reader.next()) {
+                records.add(record);
+            }
+            return records;
+        }
+    }
+}
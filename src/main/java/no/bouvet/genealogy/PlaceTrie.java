@@ -0,0 +1,49 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Import-scoped cache of the {@code Sted} hierarchy. The trie is keyed by the reversed place path, country first,
+ * so every prefix of a path is a place of its own, and each entry holds the node id of that place once it is
+ * known. Resolving a place that has been seen before is then a walk of a few hash lookups.
+ */
+class PlaceTrie {
+
+    private final Entry root = new Entry();
+    private int size;
+
+    Entry root() {
+        return root;
+    }
+
+    /**
+     * @return the number of places in the trie
+     */
+    int size() {
+        return size;
+    }
+
+    class Entry {
+
+        long nodeId = XrefNodeIdMap.NOT_FOUND;
+        private Map<String, Entry> children;
+
+        /**
+         * @return the entry for the named place inside this one, created if it does not exist yet
+         */
+        Entry child(String name) {
+            if (children == null) {
+                children = Maps.newHashMapWithExpectedSize(4);
+            }
+            Entry child = children.get(name);
+            if (child == null) {
+                child = new Entry();
+                children.put(name, child);
+                size++;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The content hash and the CHAN date of every INDI, FAM and SOUR record of a GEDCOM file, by id. A delta import
+ * compares them with the ones stored on the nodes of the previous import to find the records that have changed.
+ * <p>
+ * The hash covers the text of the whole record, so a change to any of its lines changes the hash, whether the program
+ * that wrote the file updated the CHAN date or not.
+ */
+class RecordDigests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordDigests.class);
+
+    private final Map<String, Digest> individuals = Maps.newHashMap();
+    private final Map<String, Digest> families = Maps.newHashMap();
+    private final Map<String, Digest> sources = Maps.newHashMap();
+
+    static RecordDigests of(String gedcomFilename) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        RecordDigests digests = new RecordDigests();
+        try (GedcomTokenizer tokens = new GedcomTokenizer(gedcomFilename)) {
+            digests.read(tokens);
+        }
+        LOG.info("Hashed {} individuals, {} families and {} sources in {}", new Object[]{digests.individuals.size(),
+                digests.families.size(), digests.sources.size(), stopwatch.stop()});
+        return digests;
+    }
+
+    /**
+     * @return the digests of the INDI records, by id without the {@code @}s
+     */
+    Map<String, Digest> individuals() {
+        return individuals;
+    }
+
+    Map<String, Digest> families() {
+        return families;
+    }
+
+    Map<String, Digest> sources() {
+        return sources;
+    }
+
+    private void read(GedcomTokenizer tokens) {
+        while (tokens.next()) {
+            if (tokens.level() != 0 || !tokens.hasXref()) {
+                continue;
+            }
+            Map<String, Digest> records = tokens.tagIs("INDI") ? individuals
+                    : tokens.tagIs("FAM") ? families
+                    : tokens.tagIs("SOUR") ? sources
+                    : null;
+            if (records == null) {
+                continue;
+            }
+
+            String id = GedcomToNeo4J.makeId(tokens.xref());
+            long start = tokens.lineStart();
+            long end = tokens.length();
+            String changed = null;
+            boolean inChange = false;
+            while (tokens.next()) {
+                if (tokens.level() == 0) {
+                    end = tokens.lineStart();
+                    tokens.pushBack();
+                    break;
+                }
+                if (tokens.level() == 1) {
+                    inChange = tokens.tagIs("CHAN");
+                } else if (inChange && tokens.level() == 2 && tokens.tagIs("DATE")) {
+                    changed = tokens.value();
+                } else if (inChange && changed != null && tokens.level() == 3 && tokens.tagIs("TIME")
+                        && tokens.value() != null) {
+                    changed = changed + " " + tokens.value();
+                }
+            }
+            records.put(id, new Digest(tokens.hash(start, end), changed));
+        }
+    }
+
+    static class Digest {
+
+        final long hash;
+
+        /**
+         * The date of the CHAN line of the record, followed by its time if it has one, or null if it has none
+         */
+        final String changed;
+
+        Digest(long hash, String changed) {
+            this.hash = hash;
+            this.changed = changed;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Map from the xref of a GEDCOM record to its byte offset and length in the file. Records are numbered in the order
+ * they are added, with their offsets and lengths in arrays of their own, and an open-addressing table of those
+ * numbers is used to find them by xref.
+ */
+class RecordOffsets {
+
+    static final int NOT_FOUND = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private String[] xrefs;
+    private long[] starts;
+    private int[] lengths;
+    private int size;
+
+    // Record number plus one per slot, zero for an empty slot
+    private int[] table;
+    private int threshold;
+
+    RecordOffsets() {
+        this(1024);
+    }
+
+    RecordOffsets(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        xrefs = new String[capacity];
+        starts = new long[capacity];
+        lengths = new int[capacity];
+        allocate(Integer.highestOneBit(Math.max(16, (int) (capacity / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    /**
+     * @return the number of the record with the xref, or {@link #NOT_FOUND}
+     */
+    int find(String xref) {
+        int mask = table.length - 1;
+        for (int slot = slot(xref, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+            if (xrefs[table[slot] - 1].equals(xref)) {
+                return table[slot] - 1;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @param start the byte offset of the record
+     * @param length the length of the record in bytes, which must fit in an int
+     */
+    void add(String xref, long start, long length) {
+        Preconditions.checkArgument(start >= 0, "Negative offset %s of record %s", start, xref);
+        Preconditions.checkArgument(length >= 0 && length <= Integer.MAX_VALUE,
+                "Record %s is %s bytes long, which is more than 2 GB or negative", xref, length);
+        int existing = find(xref);
+        if (existing != NOT_FOUND) {
+            // Of two records with the same xref, the last one is kept
+            starts[existing] = start;
+            lengths[existing] = (int) length;
+            return;
+        }
+        if (size == xrefs.length) {
+            int capacity = size << 1;
+            xrefs = Arrays.copyOf(xrefs, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        xrefs[size] = xref;
+        starts[size] = start;
+        lengths[size] = (int) length;
+        insert(table, xref, ++size);
+        if (size > threshold) {
+            allocate(table.length << 1);
+            for (int record = 0; record < size; record++) {
+                insert(table, xrefs[record], record + 1);
+            }
+        }
+    }
+
+    long start(int record) {
+        return starts[record];
+    }
+
+    int length(int record) {
+        return lengths[record];
+    }
+
+    String xref(int record) {
+        return xrefs[record];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        table = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static void insert(int[] table, String xref, int number) {
+        int mask = table.length - 1;
+        int slot = slot(xref, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = number;
+    }
+
+    private static int slot(String xref, int mask) {
+        int hash = xref.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
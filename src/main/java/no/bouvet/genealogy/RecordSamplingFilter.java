@@ -0,0 +1,51 @@
+package no.bouvet.genealogy;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets only every n-th message marked as {@link #RECORD} through, counted separately for every message, so the log of
+ * a large import still shows a sample of each kind of per-record message. Being a turbo filter, it decides before
+ * the logging event is built, so the messages it drops are never formatted.
+ * <p>
+ * A check like {@code isInfoEnabled(marker)} carries no message. If its marker holds {@link #RECORD}, the check is
+ * sampled by the name of the marker instead, and the message it guards is logged without a marker, so that a dropped
+ * message does not even have its arguments built.
+ */
+public class RecordSamplingFilter extends TurboFilter {
+
+    static final String RECORD = "RECORD";
+
+    private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    private int every = 1000;
+
+    public void setEvery(int every) {
+        this.every = every;
+    }
+
+    @Override
+    public void start() {
+        if (every < 1) {
+            addError("every must be at least 1, not " + every);
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!isStarted() || marker == null || !marker.contains(RECORD)) {
+            return FilterReply.NEUTRAL;
+        }
+        AtomicLong count = counts.computeIfAbsent(format != null ? format : marker.getName(), key -> new AtomicLong());
+        return count.getAndIncrement() % every == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+}
@@ -0,0 +1,18 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.AbstractElement;
+import org.gedcom4j.parser.GedcomParserException;
+
+import java.io.IOException;
+
+/**
+ * The level-0 records of a GEDCOM file, in file order, as read by a streaming import.
+ */
+@FunctionalInterface
+interface RecordSource {
+
+    /**
+     * @return the next INDI, FAM, SOUR or NOTE record, or null at the end of the file
+     */
+    AbstractElement next() throws IOException, GedcomParserException;
+}
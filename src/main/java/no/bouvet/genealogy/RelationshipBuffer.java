@@ -0,0 +1,74 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relationships recorded during the node phase of an import, to be written in the relationship phase. Start and
+ * end node ids and the relationship type are kept in primitive arrays; only relationships that carry properties
+ * hold a reference to their property map.
+ */
+class RelationshipBuffer {
+
+    private final List<RelationshipType> types = Lists.newArrayList();
+
+    private long[] starts = new long[1024];
+    private long[] ends = new long[1024];
+    private byte[] typeIndexes = new byte[1024];
+    private Object[] properties = new Object[1024];
+    private int size;
+
+    void add(long from, long to, RelationshipType type, Map<String, Object> relationshipProperties) {
+        if (size == starts.length) {
+            int capacity = size << 1;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            typeIndexes = Arrays.copyOf(typeIndexes, capacity);
+            properties = Arrays.copyOf(properties, capacity);
+        }
+        starts[size] = from;
+        ends[size] = to;
+        typeIndexes[size] = typeIndex(type);
+        properties[size] = relationshipProperties.isEmpty() ? null : relationshipProperties;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(RelationshipConsumer consumer) {
+        forEach(0, size, consumer);
+    }
+
+    /**
+     * Replays the relationships from index {@code from}, inclusive, to {@code to}, exclusive.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(int from, int to, RelationshipConsumer consumer) {
+        for (int index = from; index < to; index++) {
+            Map<String, Object> relationshipProperties = (Map<String, Object>) properties[index];
+            consumer.accept(starts[index], ends[index], types.get(typeIndexes[index]),
+                    relationshipProperties != null ? relationshipProperties : ImmutableMap.of());
+        }
+    }
+
+    private byte typeIndex(RelationshipType type) {
+        int index = types.indexOf(type);
+        if (index < 0) {
+            index = types.size();
+            types.add(type);
+        }
+        return (byte) index;
+    }
+
+    @FunctionalInterface
+    interface RelationshipConsumer {
+        void accept(long from, long to, RelationshipType type, Map<String, Object> properties);
+    }
+}
@@ -0,0 +1,49 @@
+package no.bouvet.genealogy;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * A {@link GraphSink} on a store that may hold nodes already, which it can look up, change and delete. Imports that
+ * update a store, and workers that retry a transaction, need a sink of this type.
+ */
+interface UpdatableGraphSink extends GraphSink {
+
+    /**
+     * @return true if the store held no nodes when this sink was opened
+     */
+    boolean isEmpty();
+
+    void removeNodeProperty(long node, String key);
+
+    /**
+     * Deletes the node together with all of its relationships.
+     */
+    void deleteNode(long node);
+
+    /**
+     * @return ids of all nodes with the given label and property value
+     */
+    Iterable<Long> findNodes(Label label, String key, Object value);
+
+    /**
+     * @return ids of all nodes with the given label
+     */
+    Iterable<Long> findNodes(Label label);
+
+    /**
+     * @return ids of the end nodes of all outgoing relationships of the given type
+     */
+    Iterable<Long> findRelated(long node, RelationshipType type);
+
+    /**
+     * Deletes the outgoing relationships of the given type, or only those among them whose property has the given
+     * value if a key is given.
+     */
+    void deleteRelationships(long node, RelationshipType type, String key, Object value);
+
+    /**
+     * Discards all writes since the last {@link #flush()}.
+     */
+    void discard();
+}
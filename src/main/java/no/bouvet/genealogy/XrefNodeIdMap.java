@@ -0,0 +1,96 @@
+package no.bouvet.genealogy;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Open-addressing hash map from GEDCOM xref to node id. Ids are kept in a {@code long[]} next to the key array, so
+ * an entry costs two array slots rather than a boxed {@code Long} and a map entry object.
+ */
+class XrefNodeIdMap {
+
+    static final long NOT_FOUND = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private String[] keys;
+    private long[] values;
+    private int size;
+    private int threshold;
+
+    XrefNodeIdMap() {
+        this(1024);
+    }
+
+    XrefNodeIdMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    /**
+     * @return the node id stored for the xref, or {@link #NOT_FOUND}
+     */
+    long get(String xref) {
+        int mask = keys.length - 1;
+        for (int slot = slot(xref, mask); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(xref)) {
+                return values[slot];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    void put(String xref, long nodeId) {
+        if (insert(keys, values, xref, nodeId) && ++size > threshold) {
+            String[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(keys.length << 1);
+            for (int index = 0; index < oldKeys.length; index++) {
+                if (oldKeys[index] != null) {
+                    insert(keys, values, oldKeys[index], oldValues[index]);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(ObjLongConsumer<String> consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NOT_FOUND);
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return true if the key was not present before
+     */
+    private static boolean insert(String[] keys, long[] values, String xref, long nodeId) {
+        int mask = keys.length - 1;
+        int slot = slot(xref, mask);
+        while (keys[slot] != null) {
+            if (keys[slot].equals(xref)) {
+                values[slot] = nodeId;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = xref;
+        values[slot] = nodeId;
+        return true;
+    }
+
+    private static int slot(String xref, int mask) {
+        int hash = xref.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
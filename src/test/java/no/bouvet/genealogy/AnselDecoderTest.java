@@ -0,0 +1,91 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AnselDecoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void asciiIsKeptAsItIs() {
+        assertEquals("Jakobsen /Ola/", decode(bytes("Jakobsen /Ola/")));
+    }
+
+    @Test
+    public void spacingCharactersAreMapped() {
+        // ANSEL has no precomposed letters, but it has ø, æ and the like as characters of their own
+        assertEquals("Sør-Trøndelag", decode(bytes("S", 0xB2, "r-Tr", 0xB2, "ndelag")));
+        assertEquals("Ærø", decode(bytes(0xA5, "r", 0xB2)));
+    }
+
+    @Test
+    public void diacriticsBeforeALetterAreComposedWithIt() {
+        assertEquals("Håkon", decode(bytes("H", 0xEA, "akon")));
+        assertEquals("José", decode(bytes("Jos", 0xE2, "e")));
+        assertEquals("Müller", decode(bytes("M", 0xE8, "uller")));
+    }
+
+    @Test
+    public void severalDiacriticsFollowTheLetterInTheirOrder() {
+        // â has a precomposed form, â with a diaeresis as well does not
+        assertEquals("\u00E2\u0308", decode(bytes(0xE3, 0xE8, "a")));
+    }
+
+    @Test
+    public void aDiacriticAtTheEndIsKept() {
+        assertEquals("\u00E1", decode(bytes("a", 0xE2)));
+    }
+
+    @Test
+    public void unknownBytesBecomeReplacementCharacters() {
+        assertEquals("a\uFFFDb", decode(bytes("a", 0x80, "b")));
+    }
+
+    @Test
+    public void tokenizerDecodesFilesThatSayTheyAreAnsel() throws Exception {
+        File file = folder.newFile("ansel.ged");
+        Files.write(bytes("0 HEAD\r\n1 CHAR ANSEL\r\n0 @I1@ INDI\r\n1 NAME H", 0xEA, "akon /M", 0xB2, "ller/\r\n0 TRLR\r\n"),
+                file);
+
+        try (GedcomTokenizer tokens = new GedcomTokenizer(file.getPath())) {
+            while (tokens.next()) {
+                if (tokens.tagIs("NAME")) {
+                    assertEquals("Håkon /Møller/", tokens.value());
+                    return;
+                }
+            }
+        }
+        fail("No NAME line was read");
+    }
+
+    private static String decode(byte[] ansel) {
+        return AnselDecoder.decode(ansel, ansel.length, new char[ansel.length]);
+    }
+
+    /**
+     * @param parts ASCII text and the ints of single bytes
+     */
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof Integer) {
+                out.write((Integer) part);
+            } else {
+                byte[] text = ((String) part).getBytes(Charsets.US_ASCII);
+                out.write(text, 0, text.length);
+            }
+        }
+        return out.toByteArray();
+    }
+}
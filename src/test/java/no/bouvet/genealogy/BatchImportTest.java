@@ -0,0 +1,24 @@
+package no.bouvet.genealogy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class BatchImportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void batchImportMatchesTheTransactionalOne() throws Exception {
+        File batch = new File(folder.getRoot(), "batch");
+        new GedcomToNeo4J().loadBatch(StoreContents.sample().getPath(), batch.getPath());
+
+        File transactional = folder.newFolder("transactional");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), transactional.getPath());
+
+        StoreContents.assertSame(StoreContents.of(transactional), StoreContents.of(batch));
+    }
+}
@@ -0,0 +1,164 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CsvExportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The export fails on a property it has no column for, but only once the mapping writes it, so this checks the
+     * columns against everything an import of the sample writes.
+     */
+    @Test
+    public void exportHasAColumnForEveryPropertyTheImportWrites() throws Exception {
+        File csv = new File(folder.getRoot(), "csv");
+        new GedcomToNeo4J().exportCsv(StoreContents.sample().getPath(), csv.getPath());
+        File store = folder.newFolder("store");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+
+        Map<String, Set<String>> nodeKeys = Maps.newTreeMap();
+        Map<String, Set<String>> relationshipKeys = Maps.newTreeMap();
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(store.getPath());
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(graphDb).getAllNodes()) {
+                for (Label label : node.getLabels()) {
+                    Iterables.addAll(nodeKeys.computeIfAbsent(label.name(), name -> Sets.newTreeSet()),
+                            node.getPropertyKeys());
+                }
+            }
+            for (Relationship relationship : GlobalGraphOperations.at(graphDb).getAllRelationships()) {
+                Iterables.addAll(relationshipKeys.computeIfAbsent(relationship.getType().name(),
+                        name -> Sets.newTreeSet()), relationship.getPropertyKeys());
+            }
+            tx.success();
+        } finally {
+            graphDb.shutdown();
+        }
+
+        StoreContents contents = StoreContents.of(store);
+        for (Map.Entry<String, Set<String>> label : nodeKeys.entrySet()) {
+            assertColumns(csv, label.getKey(), label.getValue(), contents.labels.get(label.getKey()));
+        }
+        for (Map.Entry<String, Set<String>> type : relationshipKeys.entrySet()) {
+            assertColumns(csv, type.getKey(), type.getValue(), contents.types.get(type.getKey()));
+        }
+    }
+
+    @Test
+    public void textAndArraysSurviveQuoting() throws Exception {
+        File csv = new File(folder.getRoot(), "csv");
+        String[] names = {"Ola \"Store\" Nordmann", "Kari,\nNordmann", "Tab\tinside"};
+        try (GraphSink sink = new CsvGraphSink(csv,
+                ImmutableMap.of("Person", ImmutableList.of("id", "navn:string[]", "kjonn")),
+                ImmutableMap.of("SITAT", ImmutableList.of("sitat")))) {
+            long person = sink.createNode(DynamicLabel.label("Person"), ImmutableMap.of("id", "I1"));
+            sink.setNodeProperty(person, "navn", names);
+            long other = sink.createNode(DynamicLabel.label("Person"), ImmutableMap.of("id", "I2"));
+            sink.createRelationship(person, other, DynamicRelationshipType.withName("SITAT"),
+                    ImmutableMap.of("sitat", "s. 12, \"Bind\" 3"));
+            sink.commitPoint();
+        }
+
+        List<List<String>> persons = read(new File(csv, "Person.csv"));
+        assertEquals(ImmutableList.of(":ID", "id", "navn:string[]", "kjonn", ":LABEL"), persons.get(0));
+        assertEquals(ImmutableList.of("0", "I1", "Ola \"Store\" Nordmann\tKari,\nNordmann\tTab inside", "", "Person"),
+                persons.get(1));
+        assertEquals(ImmutableList.of("Ola \"Store\" Nordmann", "Kari,\nNordmann", "Tab inside"),
+                Splitter.on('\t').splitToList(persons.get(1).get(2)));
+        assertEquals(ImmutableList.of("1", "I2", "", "", "Person"), persons.get(2));
+
+        List<List<String>> citations = read(new File(csv, "SITAT.csv"));
+        assertEquals(ImmutableList.of(":START_ID", ":END_ID", "sitat", ":TYPE"), citations.get(0));
+        assertEquals(ImmutableList.of("0", "1", "s. 12, \"Bind\" 3", "SITAT"), citations.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void propertiesWithoutAColumnAreRejected() throws Exception {
+        try (GraphSink sink = new CsvGraphSink(new File(folder.getRoot(), "csv"),
+                ImmutableMap.of("Person", ImmutableList.of("id")), ImmutableMap.of())) {
+            sink.createNode(DynamicLabel.label("Person"), ImmutableMap.of("id", "I1", "kjonn", "M"));
+        }
+    }
+
+    private static void assertColumns(File csv, String name, Set<String> keys, int count) throws IOException {
+        List<List<String>> rows = read(new File(csv, name + ".csv"));
+        assertTrue(name + " has a column for each of " + keys, propertyColumns(rows.get(0)).containsAll(keys));
+        assertEquals(name + " rows", count, rows.size() - 1);
+    }
+
+    private static List<String> propertyColumns(List<String> header) {
+        List<String> keys = Lists.newArrayList();
+        header.stream().filter(column -> !column.startsWith(":"))
+                .forEach(column -> keys.add(column.contains(":") ? column.substring(0, column.indexOf(':')) : column));
+        return keys;
+    }
+
+    /**
+     * Reads the rows of a CSV file the way neo4j-import does with {@code --multiline-fields true}: fields are
+     * separated by commas, and quoted fields may hold commas, line breaks and doubled quotes.
+     */
+    private static List<List<String>> read(File file) throws IOException {
+        String text = Files.toString(file, Charsets.UTF_8);
+        List<List<String>> rows = Lists.newArrayList();
+        List<String> row = Lists.newArrayList();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int index = 0; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (quoted) {
+                if (c == '"' && index + 1 < text.length() && text.charAt(index + 1) == '"') {
+                    field.append('"');
+                    index++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                row.add(field.toString());
+                field.setLength(0);
+                rows.add(row);
+                row = Lists.newArrayList();
+            } else {
+                field.append(c);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,46 @@
+package no.bouvet.genealogy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * A delta import of a changed file onto the store of the original should give the store a fresh import of the
+ * changed file gives.
+ */
+public class DeltaImportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesChangedAndRemovedRecords() throws Exception {
+        File changed = StoreContents.editSample(folder.newFile("changed.ged"),
+                lines -> StoreContents.withoutSource(StoreContents.renamed(lines), "@S3@"));
+        File store = folder.newFolder("delta");
+        new GedcomToNeo4J().withDelta(true).load(StoreContents.sample().getPath(), store.getPath());
+
+        new GedcomToNeo4J().withDelta(true).load(changed.getPath(), store.getPath());
+
+        StoreContents.assertSame(freshImport(changed), StoreContents.of(store));
+    }
+
+    @Test
+    public void theSameFileChangesNothing() throws Exception {
+        File store = folder.newFolder("delta");
+        new GedcomToNeo4J().withDelta(true).load(StoreContents.sample().getPath(), store.getPath());
+        StoreContents imported = StoreContents.of(store);
+
+        new GedcomToNeo4J().withDelta(true).load(StoreContents.sample().getPath(), store.getPath());
+
+        StoreContents.assertSame(imported, StoreContents.of(store));
+    }
+
+    private StoreContents freshImport(File gedcom) throws Exception {
+        File store = folder.newFolder();
+        new GedcomToNeo4J().load(gedcom.getPath(), store.getPath());
+        return StoreContents.of(store);
+    }
+}
@@ -0,0 +1,50 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * The sample, written in other character sets, should import to the same store as the UTF-16LE original, whether
+ * the file is read through gedcom4j or streamed.
+ */
+public class GedcomEncodingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void utf16BigEndianImportsLikeTheOriginal() throws Exception {
+        File converted = convert(Charsets.UTF_16BE, "");
+        assertImportsLikeTheOriginal(converted, new GedcomToNeo4J());
+    }
+
+    @Test
+    public void utf8WithByteOrderMarkImportsLikeTheOriginal() throws Exception {
+        File converted = convert(Charsets.UTF_8, "\uFEFF");
+        assertImportsLikeTheOriginal(converted, new GedcomToNeo4J());
+        assertImportsLikeTheOriginal(converted, new GedcomToNeo4J().withStreaming(true));
+    }
+
+    private void assertImportsLikeTheOriginal(File converted, GedcomToNeo4J importer) throws Exception {
+        File expected = folder.newFolder();
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), expected.getPath());
+        File actual = folder.newFolder();
+        importer.load(converted.getPath(), actual.getPath());
+        StoreContents.assertSame(StoreContents.of(expected), StoreContents.of(actual));
+    }
+
+    private File convert(Charset charset, String byteOrderMark) throws Exception {
+        List<String> lines = Files.readLines(StoreContents.sample(), Charsets.UTF_16LE);
+        File file = folder.newFile(charset.name() + ".ged");
+        Files.write(byteOrderMark + Joiner.on("\r\n").join(lines) + "\r\n", file, charset);
+        return file;
+    }
+}
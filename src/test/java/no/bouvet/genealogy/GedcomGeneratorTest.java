@@ -0,0 +1,96 @@
+package no.bouvet.genealogy;
+
+import com.google.common.io.Files;
+import org.gedcom4j.model.Family;
+import org.gedcom4j.model.Gedcom;
+import org.gedcom4j.model.Individual;
+import org.gedcom4j.parser.GedcomParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GedcomGeneratorTest {
+
+    private static final int INDIVIDUALS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void theSameSeedGivesTheSameFile() throws Exception {
+        File first = generate(7, "first.ged");
+        File again = generate(7, "again.ged");
+        File other = generate(8, "other.ged");
+
+        assertTrue(Arrays.equals(Files.toByteArray(first), Files.toByteArray(again)));
+        assertFalse(Arrays.equals(Files.toByteArray(first), Files.toByteArray(other)));
+    }
+
+    /**
+     * gedcom4j adds a record for every reference it cannot resolve, so a file without dangling references has
+     * exactly the individuals that were asked for.
+     */
+    @Test
+    public void familiesAndTheirMembersReferToEachOther() throws Exception {
+        Gedcom gedcom = parse(generate(1, "generated.ged"));
+
+        assertEquals(INDIVIDUALS, gedcom.individuals.size());
+        for (Family family : gedcom.families.values()) {
+            if (family.husband != null) {
+                assertTrue(family.xref, isSpouseIn(family.husband, family));
+            }
+            if (family.wife != null) {
+                assertTrue(family.xref, isSpouseIn(family.wife, family));
+            }
+            for (Individual child : family.children) {
+                assertTrue(family.xref, child.familiesWhereChild.stream().anyMatch(link -> link.family == family));
+            }
+        }
+        for (Individual individual : gedcom.individuals.values()) {
+            individual.familiesWhereChild.forEach(link ->
+                    assertSame(gedcom.families.get(link.family.xref), link.family));
+        }
+    }
+
+    @Test
+    public void eventsPerPersonFollowTheSample() throws Exception {
+        double sample = eventsPerPerson(parse(StoreContents.sample()));
+        double generated = eventsPerPerson(parse(generate(1, "generated.ged")));
+
+        assertEquals(sample, generated, sample * 0.1);
+    }
+
+    private File generate(long seed, String name) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        new GedcomGenerator(seed).write(INDIVIDUALS, file.getPath());
+        return file;
+    }
+
+    private static boolean isSpouseIn(Individual individual, Family family) {
+        return individual.familiesWhereSpouse.stream().anyMatch(spouse -> spouse.family == family);
+    }
+
+    private static double eventsPerPerson(Gedcom gedcom) {
+        return gedcom.individuals.values().stream()
+                .mapToInt(individual -> individual.events.size() + individual.attributes.size())
+                .average().getAsDouble();
+    }
+
+    private static Gedcom parse(File gedcom) throws Exception {
+        GedcomParser parser = new GedcomParser();
+        try (InputStream utf8 = new GedcomTranscodingStream(new GedcomTokenizer(gedcom.getPath()))) {
+            parser.load(new BufferedInputStream(utf8));
+        }
+        return parser.gedcom;
+    }
+}
@@ -0,0 +1,46 @@
+package no.bouvet.genealogy;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GedcomIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void builtAndLoadedIndexesFindTheSameRecords() throws Exception {
+        File gedcom = folder.newFile("min-slekt.ged");
+        Files.copy(StoreContents.sample(), gedcom);
+
+        String individual;
+        String family;
+        try (GedcomIndex built = GedcomIndex.open(gedcom.getPath())) {
+            individual = built.text("I1");
+            family = built.text("@F1@");
+            assertNull(built.text("I0"));
+        }
+        assertTrue(new File(gedcom.getPath() + GedcomIndex.SUFFIX).exists());
+        assertTrue(individual, individual.startsWith("0 @I1@ INDI"));
+        assertTrue(family, family.startsWith("0 @F1@ FAM"));
+        assertEquals(1, individual.split("\n0 ").length);
+
+        try (GedcomIndex loaded = GedcomIndex.open(gedcom.getPath())) {
+            assertEquals(individual, loaded.text("I1"));
+            assertEquals(family, loaded.text("F1"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordsOfMoreThan2GbAreRejected() {
+        new RecordOffsets().add("@I1@", 1L << 40, 1L << 31);
+    }
+}
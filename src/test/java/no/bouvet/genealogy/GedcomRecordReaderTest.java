@@ -0,0 +1,103 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Lists;
+import org.gedcom4j.model.*;
+import org.gedcom4j.parser.GedcomParser;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads the sample with the record reader and with gedcom4j, and compares what the importer maps of every record.
+ */
+public class GedcomRecordReaderTest {
+
+    @Test
+    public void readsTheRecordsGedcom4jReads() throws Exception {
+        Gedcom gedcom = parse(StoreContents.sample().getPath());
+        List<String> expected = Lists.newArrayList();
+        gedcom.individuals.values().forEach(individual -> expected.add(describe(individual)));
+        gedcom.families.values().forEach(family -> expected.add(describe(family)));
+        gedcom.sources.values().forEach(source -> expected.add(describe(source)));
+
+        List<String> actual = Lists.newArrayList();
+        try (GedcomRecordReader records = new GedcomRecordReader(StoreContents.sample().getPath(), true)) {
+            for (AbstractElement record = records.next(); record != null; record = records.next()) {
+                if (record instanceof Individual) {
+                    actual.add(describe((Individual) record));
+                } else if (record instanceof Family) {
+                    actual.add(describe((Family) record));
+                } else if (record instanceof Source) {
+                    actual.add(describe((Source) record));
+                }
+            }
+        }
+
+        expected.sort(null);
+        actual.sort(null);
+        assertEquals(expected, actual);
+    }
+
+    private static Gedcom parse(String gedcomFilename) throws Exception {
+        GedcomParser parser = new GedcomParser();
+        try (InputStream utf8 = new GedcomTranscodingStream(new GedcomTokenizer(gedcomFilename))) {
+            parser.load(new BufferedInputStream(utf8));
+        }
+        return parser.gedcom;
+    }
+
+    private static String describe(Individual individual) {
+        StringBuilder text = new StringBuilder("INDI ").append(individual.xref);
+        individual.names.forEach(name -> text.append(" NAME ").append(name.basic).append(citations(name.citations)));
+        text.append(" SEX ").append(individual.sex);
+        individual.events.forEach(event -> text.append(' ').append(event.type.tag).append(describe(event)));
+        individual.attributes.forEach(attribute -> text.append(' ').append(attribute.type.tag)
+                .append(describe(attribute)).append(" DESC ").append(attribute.description));
+        individual.familiesWhereChild.forEach(child -> text.append(" FAMC ").append(child.family.xref));
+        individual.familiesWhereSpouse.forEach(spouse -> text.append(" FAMS ").append(spouse.family.xref));
+        return text.append(notes(individual.notes)).append(citations(individual.citations)).toString();
+    }
+
+    private static String describe(Family family) {
+        StringBuilder text = new StringBuilder("FAM ").append(family.xref);
+        text.append(" HUSB ").append(family.husband != null ? family.husband.xref : null);
+        text.append(" WIFE ").append(family.wife != null ? family.wife.xref : null);
+        family.children.forEach(child -> text.append(" CHIL ").append(child.xref));
+        family.events.forEach(event -> text.append(' ').append(event.type.tag).append(describe(event)));
+        return text.toString();
+    }
+
+    private static String describe(Source source) {
+        return "SOUR " + source.xref + " TITL " + source.title + " AUTH " + source.originatorsAuthors
+                + " PUBL " + source.publicationFacts + notes(source.notes);
+    }
+
+    private static String describe(Event event) {
+        return " DATE " + event.date + " PLAC " + (event.place != null ? event.place.placeName : null)
+                + notes(event.notes) + citations(event.citations);
+    }
+
+    private static String notes(List<Note> notes) {
+        StringBuilder text = new StringBuilder();
+        notes.forEach(note -> text.append(" NOTE ").append(note.xref != null ? note.xref : note.lines));
+        return text.toString();
+    }
+
+    private static String citations(List<AbstractCitation> citations) {
+        StringBuilder text = new StringBuilder();
+        for (AbstractCitation citation : citations) {
+            if (citation instanceof CitationWithSource) {
+                CitationWithSource withSource = (CitationWithSource) citation;
+                text.append(" SOUR ").append(withSource.source.xref).append(" PAGE ").append(withSource.whereInSource)
+                        .append(" QUAY ").append(withSource.certainty);
+            } else {
+                text.append(" SOUR ").append(((CitationWithoutSource) citation).description);
+            }
+        }
+        return text.toString();
+    }
+}
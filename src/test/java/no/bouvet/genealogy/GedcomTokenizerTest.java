@@ -0,0 +1,54 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Files of more than 2 GB are mapped in several windows. Mapping the sample in windows of 4 kB, so that lines cross
+ * from one window into the next, should read the same lines as mapping it in one.
+ */
+public class GedcomTokenizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void smallWindowsReadTheSameLinesInUtf16() throws Exception {
+        assertSameLines(StoreContents.sample());
+    }
+
+    @Test
+    public void smallWindowsReadTheSameLinesInUtf8() throws Exception {
+        File converted = folder.newFile("utf-8.ged");
+        Files.write(Joiner.on("\r\n").join(Files.readLines(StoreContents.sample(), Charsets.UTF_16LE)) + "\r\n",
+                converted, Charsets.UTF_8);
+        assertSameLines(converted);
+    }
+
+    private static void assertSameLines(File gedcom) throws Exception {
+        try (GedcomTokenizer whole = new GedcomTokenizer(gedcom.getPath());
+             GedcomTokenizer windowed = new GedcomTokenizer(gedcom.getPath(), 12)) {
+            assertEquals(whole.length(), windowed.length());
+            assertEquals(lines(whole), lines(windowed));
+            assertEquals(whole.hash(0, whole.length()), windowed.hash(0, windowed.length()));
+        }
+    }
+
+    private static List<String> lines(GedcomTokenizer tokens) {
+        List<String> lines = Lists.newArrayList();
+        while (tokens.next()) {
+            lines.add(tokens.lineStart() + " " + tokens.level() + " " + tokens.xref() + " " + tokens.value());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,71 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImportBenchmarkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reportsEverySize() throws Exception {
+        File directory = folder.newFolder("benchmark");
+        assertTrue(new ImportBenchmark(directory, 1, ImportBenchmark.Target.MEMORY, GedcomToNeo4J::new)
+                .run(ImmutableList.of(200, 400), null));
+
+        List<ImportBenchmark.Result> report = ImportBenchmark.read(new File(directory, ImportBenchmark.REPORT));
+        assertEquals(2, report.size());
+        assertEquals(200, report.get(0).individuals);
+        assertEquals(400, report.get(1).individuals);
+        assertTrue(report.get(0).nodes > 0);
+        assertTrue(report.get(1).nodes > report.get(0).nodes);
+        assertTrue(report.get(1).relationships > report.get(0).relationships);
+    }
+
+    @Test
+    public void reportsCanBeReadBack() throws Exception {
+        File report = folder.newFile(ImportBenchmark.REPORT);
+        ImportBenchmark.write(ImmutableList.of(result(1000, 2000, 64 << 20, 5 << 20)), report);
+
+        ImportBenchmark.Result read = ImportBenchmark.read(report).get(0);
+        assertEquals(1000, read.individuals);
+        assertEquals(2000, read.wallMillis);
+        assertEquals(64 << 20, read.peakHeapBytes);
+        assertEquals(5 << 20, read.storeBytes);
+        assertEquals(4000, read.nodes);
+    }
+
+    @Test
+    public void slowerImportsThanTheBaselineAllowsRegress() {
+        List<ImportBenchmark.Result> baseline = ImmutableList.of(result(1000, 2000, 64 << 20, 5 << 20));
+
+        assertTrue(ImportBenchmark.compare(ImmutableList.of(result(1000, 2200, 64 << 20, 5 << 20)), baseline));
+        assertFalse(ImportBenchmark.compare(ImmutableList.of(result(1000, 3000, 64 << 20, 5 << 20)), baseline));
+        assertFalse(ImportBenchmark.compare(ImmutableList.of(result(1000, 2000, 128 << 20, 5 << 20)), baseline));
+        assertFalse(ImportBenchmark.compare(ImmutableList.of(result(1000, 2000, 64 << 20, 6 << 20)), baseline));
+        // Sizes the baseline does not have are only reported
+        assertTrue(ImportBenchmark.compare(ImmutableList.of(result(2000, 9000, 64 << 20, 5 << 20)), baseline));
+    }
+
+    private static ImportBenchmark.Result result(int individuals, long wallMillis, long peakHeapBytes,
+                                                 long storeBytes) {
+        ImportBenchmark.Result result = new ImportBenchmark.Result();
+        result.individuals = individuals;
+        result.wallMillis = wallMillis;
+        result.peakHeapBytes = peakHeapBytes;
+        result.storeBytes = storeBytes;
+        result.nodes = individuals * 4L;
+        result.relationships = individuals * 9L;
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImportMetricsTest {
+
+    @Test
+    public void summaryHoldsEveryCounter() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.nodeCreated(DynamicLabel.label("Person"));
+        metrics.nodeCreated(DynamicLabel.label("Person"));
+        metrics.nodeCreated(DynamicLabel.label("Sted"));
+        metrics.relationshipCreated(DynamicRelationshipType.withName("BARN"));
+        metrics.cacheHit("Sted");
+        metrics.cacheMiss("Sted");
+        metrics.cacheMiss("Person");
+
+        assertEquals("{\"nodes\":{\"Person\":2,\"Sted\":1},\"relationships\":{\"BARN\":1},"
+                        + "\"caches\":{\"Person\":{\"hits\":0,\"misses\":1},\"Sted\":{\"hits\":1,\"misses\":1}},"
+                        + "\"latencies\":{}}",
+                metrics.getSummary());
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighthOfTheirValue() {
+        ImportMetrics.LatencyHistogram histogram = new ImportMetrics.LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertWithinAnEighth(500000, histogram.percentile(0.5));
+        assertWithinAnEighth(990000, histogram.percentile(0.99));
+        assertEquals(1000000, histogram.percentile(1));
+        assertEquals(ImmutableMap.of("count", 1000L, "meanMicros", 500L, "p50Micros", histogram.percentile(0.5) / 1000,
+                "p99Micros", histogram.percentile(0.99) / 1000, "maxMicros", 1000L), histogram.statistics());
+    }
+
+    @Test
+    public void metricsArePublishedOverJmxWhileRegistered() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ImportMetrics.OBJECT_NAME);
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.nodeCreated(DynamicLabel.label("Familie"));
+
+        metrics.register();
+        try {
+            assertTrue(server.isRegistered(name));
+            assertEquals(metrics.getSummary(), server.getAttribute(name, "Summary"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue(actual + " is within an eighth of " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,61 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InMemoryGraphSinkTest {
+
+    private static final Label PERSON = DynamicLabel.label("Person");
+
+    @Test
+    public void keepsThePropertiesOfEveryNodeAcrossResizes() {
+        InMemoryGraphSink sink = new InMemoryGraphSink();
+        for (int index = 0; index < 5000; index++) {
+            assertEquals(index, sink.createNode(PERSON, ImmutableMap.<String, Object>of("id", "I" + index)));
+        }
+
+        for (int index = 0; index < 5000; index++) {
+            assertEquals("I" + index, sink.getNodeProperty(index, "id"));
+        }
+        assertNull(sink.getNodeProperty(0, "name"));
+        assertNull(sink.getNodeProperty(0, "unknownKey"));
+    }
+
+    @Test
+    public void setNodePropertyReplacesOrAddsAValue() {
+        InMemoryGraphSink sink = new InMemoryGraphSink();
+        long node = sink.createNode(PERSON, ImmutableMap.<String, Object>of("id", "I1", "name", "Ola"));
+        sink.setNodeProperty(node, "name", "Kari");
+        sink.setNodeProperty(node, "born", 1850);
+
+        assertEquals("I1", sink.getNodeProperty(node, "id"));
+        assertEquals("Kari", sink.getNodeProperty(node, "name"));
+        assertEquals(1850, sink.getNodeProperty(node, "born"));
+    }
+
+    @Test
+    public void createRelationshipNumbersRelationshipsInOrder() {
+        InMemoryGraphSink sink = new InMemoryGraphSink();
+        long father = sink.createNode(PERSON, ImmutableMap.<String, Object>of());
+        long child = sink.createNode(PERSON, ImmutableMap.<String, Object>of());
+
+        assertEquals(0, sink.createRelationship(father, child, DynamicRelationshipType.withName("FAR_TIL"),
+                ImmutableMap.<String, Object>of()));
+        assertEquals(1, sink.createRelationship(child, father, DynamicRelationshipType.withName("BARN_AV"),
+                ImmutableMap.<String, Object>of("order", 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createRelationshipRejectsAnUnknownNode() {
+        InMemoryGraphSink sink = new InMemoryGraphSink();
+        long node = sink.createNode(PERSON, ImmutableMap.<String, Object>of());
+        sink.createRelationship(node, node + 1, DynamicRelationshipType.withName("FAR_TIL"),
+                ImmutableMap.<String, Object>of());
+    }
+}
@@ -0,0 +1,70 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.Family;
+import org.gedcom4j.model.Gedcom;
+import org.gedcom4j.model.Individual;
+import org.gedcom4j.parser.GedcomParser;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ParallelGedcomParserTest {
+
+    @Test
+    public void parsesTheRecordsGedcomParserParses() throws Exception {
+        Gedcom expected = parse(StoreContents.sample().getPath());
+        Gedcom actual = new ParallelGedcomParser().parse(StoreContents.sample().getPath());
+
+        assertEquals(expected.individuals.keySet(), actual.individuals.keySet());
+        assertEquals(expected.families.keySet(), actual.families.keySet());
+        assertEquals(expected.sources.keySet(), actual.sources.keySet());
+        assertEquals(expected.notes.keySet(), actual.notes.keySet());
+        // The chunks are read by record readers, which only build what the importer maps
+        expected.individuals.forEach((xref, individual) -> {
+            assertEquals(xref, basicNames(individual), basicNames(actual.individuals.get(xref)));
+            assertEquals(xref, individual.events.size(), actual.individuals.get(xref).events.size());
+        });
+    }
+
+    /**
+     * Chunks are parsed on their own, so references to records in other chunks are only resolved after the merge.
+     */
+    @Test
+    public void referencesAreResolvedToTheMergedRecords() throws Exception {
+        Gedcom gedcom = new ParallelGedcomParser().parse(StoreContents.sample().getPath());
+
+        for (Family family : gedcom.families.values()) {
+            if (family.husband != null) {
+                assertSame(family.xref, gedcom.individuals.get(family.husband.xref), family.husband);
+            }
+            if (family.wife != null) {
+                assertSame(family.xref, gedcom.individuals.get(family.wife.xref), family.wife);
+            }
+            family.children.forEach(child -> assertSame(family.xref, gedcom.individuals.get(child.xref), child));
+        }
+        for (Individual individual : gedcom.individuals.values()) {
+            individual.familiesWhereChild.forEach(child ->
+                    assertSame(individual.xref, gedcom.families.get(child.family.xref), child.family));
+            individual.familiesWhereSpouse.forEach(spouse ->
+                    assertSame(individual.xref, gedcom.families.get(spouse.family.xref), spouse.family));
+        }
+    }
+
+    private static List<String> basicNames(Individual individual) {
+        return individual.names.stream().map(name -> name.basic).collect(toList());
+    }
+
+    private static Gedcom parse(String gedcomFilename) throws Exception {
+        GedcomParser parser = new GedcomParser();
+        try (InputStream utf8 = new GedcomTranscodingStream(new GedcomTokenizer(gedcomFilename))) {
+            parser.load(new BufferedInputStream(utf8));
+        }
+        return parser.gedcom;
+    }
+}
@@ -0,0 +1,43 @@
+package no.bouvet.genealogy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class ParallelImportTest {
+
+    private static final int THREADS = 4;
+    private static final int SMALL_BATCH_SIZE = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelImportMatchesASingleThreadedOne() throws Exception {
+        File parallel = folder.newFolder("parallel");
+        new GedcomToNeo4J().withThreads(THREADS).load(StoreContents.sample().getPath(), parallel.getPath());
+
+        StoreContents.assertSame(singleThreadedImport(), StoreContents.of(parallel));
+    }
+
+    /**
+     * Small batches cut the relationships into many transactions that the workers write at the same time, so
+     * batches meet on shared nodes, where a batch that deadlocks is rolled back and written again.
+     */
+    @Test
+    public void smallRelationshipBatchesGiveTheSameStore() throws Exception {
+        File parallel = folder.newFolder("parallel");
+        new GedcomToNeo4J().withThreads(THREADS).withBatchSize(SMALL_BATCH_SIZE)
+                .load(StoreContents.sample().getPath(), parallel.getPath());
+
+        StoreContents.assertSame(singleThreadedImport(), StoreContents.of(parallel));
+    }
+
+    private StoreContents singleThreadedImport() throws Exception {
+        File store = folder.newFolder("single");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+        return StoreContents.of(store);
+    }
+}
@@ -0,0 +1,25 @@
+package no.bouvet.genealogy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class PipelineImportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pipelinedImportMatchesAFullImport() throws Exception {
+        File pipelined = folder.newFolder("pipelined");
+        new GedcomToNeo4J().withPipeline(true).withStreaming(true)
+                .load(StoreContents.sample().getPath(), pipelined.getPath());
+
+        File store = folder.newFolder("store");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+
+        StoreContents.assertSame(StoreContents.of(store), StoreContents.of(pipelined));
+    }
+}
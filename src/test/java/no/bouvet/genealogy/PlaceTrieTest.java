@@ -0,0 +1,50 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PlaceTrieTest {
+
+    private final InMemoryGraphSink sink = new InMemoryGraphSink();
+    private final GedcomToNeo4J importer = new GedcomToNeo4J();
+
+    @Before
+    public void startImport() {
+        importer.startImport(sink, new XrefNodeIdMap(), new XrefNodeIdMap(), new XrefNodeIdMap(), true);
+    }
+
+    @Test
+    public void aPlaceSeenBeforeIsTheSameNode() {
+        long first = importer.fetchOrCreatePlaceChain(ImmutableList.of("Hasvik", "Finnmark", "Norge"));
+        long again = importer.fetchOrCreatePlaceChain(ImmutableList.of("Hasvik", "Finnmark", "Norge"));
+
+        assertEquals(first, again);
+        assertEquals("Hasvik", sink.getNodeProperty(first, "navn"));
+    }
+
+    @Test
+    public void pathsShareTheirOuterPlaces() {
+        long farm = importer.fetchOrCreatePlaceChain(ImmutableList.of("Breivikbotn", "Hasvik", "Finnmark", "Norge"));
+        long county = importer.fetchOrCreatePlaceChain(ImmutableList.of("Finnmark", "Norge"));
+        long town = importer.fetchOrCreatePlaceChain(ImmutableList.of("Hasvik", "Finnmark", "Norge"));
+
+        assertNotEquals(farm, town);
+        assertEquals("Finnmark", sink.getNodeProperty(county, "navn"));
+        assertEquals("Hasvik", sink.getNodeProperty(town, "navn"));
+        assertEquals(farm,
+                importer.fetchOrCreatePlaceChain(ImmutableList.of("Breivikbotn", "Hasvik", "Finnmark", "Norge")));
+    }
+
+    @Test
+    public void placesWithTheSameNameInDifferentPlacesAreDifferentNodes() {
+        long norwegian = importer.fetchOrCreatePlaceChain(ImmutableList.of("Berg", "Norge"));
+        long swedish = importer.fetchOrCreatePlaceChain(ImmutableList.of("Berg", "Sverige"));
+
+        assertNotEquals(norwegian, swedish);
+        assertEquals("Berg", sink.getNodeProperty(swedish, "navn"));
+    }
+}
@@ -0,0 +1,63 @@
+package no.bouvet.genealogy;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordSamplingFilterTest {
+
+    private final LoggerContext context = new LoggerContext();
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    private Logger log;
+
+    @Before
+    public void startLogging() {
+        RecordSamplingFilter filter = new RecordSamplingFilter();
+        filter.setEvery(3);
+        filter.setContext(context);
+        filter.start();
+        context.addTurboFilter(filter);
+        appender.setContext(context);
+        appender.start();
+        log = context.getLogger("sampled");
+        log.addAppender(appender);
+    }
+
+    @Test
+    public void everyThirdMessageIsLoggedPerFormat() {
+        for (int index = 0; index < 7; index++) {
+            log.info(GedcomToNeo4J.RECORD, "createFamily('{}')", index);
+            log.info(GedcomToNeo4J.RECORD, "createSource('{}')", index);
+            log.info("unmarked {}", index);
+        }
+
+        assertEquals(3, count("createFamily('{}')"));
+        assertEquals(3, count("createSource('{}')"));
+        assertEquals(7, count("unmarked {}"));
+    }
+
+    @Test
+    public void checksWithARecordMarkerAreSampledByTheMarker() {
+        Marker marker = MarkerFactory.getDetachedMarker("createParentRelationship");
+        marker.add(GedcomToNeo4J.RECORD);
+
+        assertTrue(log.isInfoEnabled(marker));
+        assertFalse(log.isInfoEnabled(marker));
+        assertFalse(log.isInfoEnabled(marker));
+        assertTrue(log.isInfoEnabled(marker));
+        assertTrue(log.isInfoEnabled());
+    }
+
+    private long count(String format) {
+        return appender.list.stream().filter(event -> event.getMessage().equals(format)).count();
+    }
+}
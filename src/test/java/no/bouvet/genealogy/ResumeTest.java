@@ -0,0 +1,69 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Kills a streaming import after a number of commit points, the way a crash would, and checks that resuming it gives
+ * the store an uninterrupted import gives.
+ */
+public class ResumeTest {
+
+    private static final int BATCH_SIZE = 50;
+    private static final String KILL_AFTER = "Committed batch 5 ";
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumedImportMatchesAnUninterruptedOne() throws Exception {
+        String gedcom = StoreContents.sample().getPath();
+        File store = folder.newFolder("resumed");
+        File checkpoint = new File(store.getPath() + ImportCheckpoint.SUFFIX);
+
+        killImportAfterCommits(gedcom, store);
+        assertTrue("The killed import left no checkpoint", ImportCheckpoint.hasBlocks(checkpoint));
+
+        new GedcomToNeo4J().withBatchSize(BATCH_SIZE).withStreaming(true).withResume(true)
+                .load(gedcom, store.getPath());
+        assertFalse("The resumed import kept its checkpoint", checkpoint.exists());
+
+        File uninterrupted = folder.newFolder("uninterrupted");
+        new GedcomToNeo4J().withBatchSize(BATCH_SIZE).withStreaming(true).load(gedcom, uninterrupted.getPath());
+        StoreContents.assertSame(StoreContents.of(uninterrupted), StoreContents.of(store));
+    }
+
+    /**
+     * Runs the import in a JVM of its own and kills it, without letting it shut down, once its log says it has
+     * committed a few batches.
+     */
+    private void killImportAfterCommits(String gedcom, File store) throws Exception {
+        File log = folder.newFile("import.log");
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                "--stream", "--batch-size=" + BATCH_SIZE, gedcom, store.getPath())
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (!Files.toString(log, Charsets.UTF_8).contains(KILL_AFTER)) {
+                assertTrue("The import finished before it could be killed", process.isAlive());
+                assertTrue("The import committed nothing in " + TIMEOUT_SECONDS + " s", System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            process.destroyForcibly().waitFor();
+        }
+    }
+}
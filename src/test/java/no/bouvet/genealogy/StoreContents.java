@@ -0,0 +1,139 @@
+package no.bouvet.genealogy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * What a store holds, written out so that two stores can be compared: the number of nodes of every label and of
+ * relationships of every type, and every node and relationship as text. Node ids differ from import to import, so a
+ * relationship is written with the nodes at its ends.
+ */
+class StoreContents {
+
+    // Properties that depend on how a node was written rather than on the file
+    private static final Set<String> IGNORED = ImmutableSet.of("sjekksum", "endret", "nokkel");
+
+    final Map<String, Integer> labels = Maps.newTreeMap();
+    final Map<String, Integer> types = Maps.newTreeMap();
+    final List<String> nodes = Lists.newArrayList();
+    final List<String> relationships = Lists.newArrayList();
+
+    static StoreContents of(File storeDir) {
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        try (Transaction tx = graphDb.beginTx()) {
+            StoreContents contents = new StoreContents();
+            for (Node node : GlobalGraphOperations.at(graphDb).getAllNodes()) {
+                for (Label label : node.getLabels()) {
+                    contents.labels.merge(label.name(), 1, Integer::sum);
+                }
+                contents.nodes.add(text(node));
+            }
+            for (Relationship relationship : GlobalGraphOperations.at(graphDb).getAllRelationships()) {
+                contents.types.merge(relationship.getType().name(), 1, Integer::sum);
+                contents.relationships.add(text(relationship.getStartNode()) + "-" + relationship.getType().name()
+                        + properties(relationship) + "->" + text(relationship.getEndNode()));
+            }
+            Collections.sort(contents.nodes);
+            Collections.sort(contents.relationships);
+            tx.success();
+            return contents;
+        } finally {
+            graphDb.shutdown();
+        }
+    }
+
+    /**
+     * Compares the counts first, since they tell most about what went wrong.
+     */
+    static void assertSame(StoreContents expected, StoreContents actual) {
+        assertEquals("labels", expected.labels, actual.labels);
+        assertEquals("relationship types", expected.types, actual.types);
+        assertEquals("nodes", expected.nodes, actual.nodes);
+        assertEquals("relationships", expected.relationships, actual.relationships);
+    }
+
+    /**
+     * Writes min-slekt.ged, changed by {@code edit}, to {@code file}, in the UTF-16LE of the original.
+     */
+    static File editSample(File file, UnaryOperator<List<String>> edit) throws IOException {
+        List<String> lines = Files.readLines(sample(), Charsets.UTF_16LE);
+        Files.write(Joiner.on("\r\n").join(edit.apply(lines)) + "\r\n", file, Charsets.UTF_16LE);
+        return file;
+    }
+
+    /**
+     * Gives the first person of the sample another name.
+     */
+    static List<String> renamed(List<String> lines) {
+        List<String> edited = Lists.newArrayList(lines);
+        edited.set(edited.indexOf("1 NAME Øystein /Jakobsen/ "), "1 NAME Øystein Endret /Jakobsen/ ");
+        return edited;
+    }
+
+    /**
+     * Removes the source record and every citation of it, with the lines below them.
+     */
+    static List<String> withoutSource(List<String> lines, String xref) {
+        List<String> edited = Lists.newArrayList();
+        int removedLevel = -1;
+        for (String line : lines) {
+            int level = Character.digit(line.trim().charAt(0), 10);
+            if (removedLevel >= 0 && level > removedLevel) {
+                continue;
+            }
+            removedLevel = -1;
+            if (line.equals("0 " + xref + " SOUR") || line.matches("\\d+ SOUR " + xref)) {
+                removedLevel = level;
+            } else {
+                edited.add(line);
+            }
+        }
+        return edited;
+    }
+
+    static File sample() {
+        try {
+            return new File(StoreContents.class.getResource("/min-slekt.ged").toURI());
+        } catch (Exception e) {
+            throw new IllegalStateException("min-slekt.ged is not on the class path", e);
+        }
+    }
+
+    private static String text(Node node) {
+        return Joiner.on(':').join(node.getLabels()) + properties(node);
+    }
+
+    private static String properties(PropertyContainer container) {
+        Map<String, String> properties = Maps.newTreeMap();
+        for (String key : container.getPropertyKeys()) {
+            if (!IGNORED.contains(key)) {
+                Object value = container.getProperty(key);
+                properties.put(key, value instanceof Object[] ? Arrays.toString((Object[]) value) : String.valueOf(value));
+            }
+        }
+        return properties.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package no.bouvet.genealogy;
+
+import org.gedcom4j.model.AbstractElement;
+import org.gedcom4j.model.Family;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a streaming import of a generated file in a JVM whose heap is too small for the model of the whole file, which
+ * it only gets through if it holds no more than the identity maps and the record it is reading.
+ */
+public class StreamingMemoryTest {
+
+    private static final int INDIVIDUALS = 30000;
+    // Enough for the store and the identity maps of the file, but not for the records read so far
+    private static final String MAX_HEAP = "-Xmx72m";
+    private static final long TIMEOUT_SECONDS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamingImportRunsInBoundedMemory() throws Exception {
+        String gedcom = new File(folder.getRoot(), "generated.ged").getPath();
+        new GedcomGenerator(1).write(INDIVIDUALS, gedcom);
+        File store = new File(folder.getRoot(), "store");
+
+        File log = folder.newFile("import.log");
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                MAX_HEAP, "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                "--batch", "--stream", gedcom, store.getPath())
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        try {
+            assertTrue("The import did not finish in " + TIMEOUT_SECONDS + " s",
+                    process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals("The import failed, see " + log, 0, process.exitValue());
+        } finally {
+            process.destroyForcibly().waitFor();
+        }
+
+        assertEquals(Integer.valueOf(families(gedcom)), StoreContents.of(store).labels.get("Familie"));
+    }
+
+    private static int families(String gedcom) throws Exception {
+        int families = 0;
+        try (GedcomRecordReader records = new GedcomRecordReader(gedcom, false)) {
+            for (AbstractElement record = records.next(); record != null; record = records.next()) {
+                if (record instanceof Family) {
+                    families++;
+                }
+            }
+        }
+        return families;
+    }
+}
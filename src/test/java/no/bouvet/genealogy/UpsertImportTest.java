@@ -0,0 +1,57 @@
+package no.bouvet.genealogy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class UpsertImportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void theSameFileLeavesNoDuplicates() throws Exception {
+        File store = folder.newFolder("upsert");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+
+        new GedcomToNeo4J().withUpsert(true).load(StoreContents.sample().getPath(), store.getPath());
+
+        StoreContents.assertSame(freshImport(StoreContents.sample()), StoreContents.of(store));
+    }
+
+    @Test
+    public void updatesChangedRecords() throws Exception {
+        File changed = StoreContents.editSample(folder.newFile("changed.ged"), StoreContents::renamed);
+        File store = folder.newFolder("upsert");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+
+        new GedcomToNeo4J().withUpsert(true).load(changed.getPath(), store.getPath());
+
+        StoreContents.assertSame(freshImport(changed), StoreContents.of(store));
+    }
+
+    @Test
+    public void keepsRecordsTheFileDoesNotHave() throws Exception {
+        File changed = StoreContents.editSample(folder.newFile("changed.ged"),
+                lines -> StoreContents.withoutSource(lines, "@S3@"));
+        File store = folder.newFolder("upsert");
+        new GedcomToNeo4J().load(StoreContents.sample().getPath(), store.getPath());
+
+        new GedcomToNeo4J().withUpsert(true).load(changed.getPath(), store.getPath());
+
+        StoreContents expected = freshImport(changed);
+        StoreContents actual = StoreContents.of(store);
+        assertEquals(expected.labels.get("Kilde") + 1, (int) actual.labels.get("Kilde"));
+        assertEquals(expected.types, actual.types);
+    }
+
+    private StoreContents freshImport(File gedcom) throws Exception {
+        File store = folder.newFolder();
+        new GedcomToNeo4J().load(gedcom.getPath(), store.getPath());
+        return StoreContents.of(store);
+    }
+}
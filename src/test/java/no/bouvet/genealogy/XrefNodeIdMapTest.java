@@ -0,0 +1,50 @@
+package no.bouvet.genealogy;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class XrefNodeIdMapTest {
+
+    @Test
+    public void keepsEveryEntryAcrossResizes() {
+        XrefNodeIdMap map = new XrefNodeIdMap(16);
+        for (int index = 0; index < 100000; index++) {
+            map.put("I" + index, index * 3L);
+        }
+
+        assertEquals(100000, map.size());
+        for (int index = 0; index < 100000; index++) {
+            assertEquals(index * 3L, map.get("I" + index));
+        }
+        assertEquals(XrefNodeIdMap.NOT_FOUND, map.get("I100000"));
+        assertEquals(XrefNodeIdMap.NOT_FOUND, map.get("F0"));
+    }
+
+    @Test
+    public void putReplacesTheNodeOfAKnownXref() {
+        XrefNodeIdMap map = new XrefNodeIdMap();
+        map.put("S12", 7);
+        map.put("S12", 8);
+
+        assertEquals(1, map.size());
+        assertEquals(8, map.get("S12"));
+    }
+
+    @Test
+    public void forEachVisitsEveryEntry() {
+        XrefNodeIdMap map = new XrefNodeIdMap();
+        for (int index = 0; index < 1000; index++) {
+            map.put("F" + index, index);
+        }
+
+        Map<String, Long> entries = Maps.newHashMap();
+        map.forEach(entries::put);
+
+        assertEquals(1000, entries.size());
+        entries.forEach((xref, node) -> assertEquals(xref, "F" + node));
+    }
+}